@@ -0,0 +1,70 @@
+package com.clinix.call_service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/** Decoding the binary handler channel messages, for comparison with the map-based methods. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CallMessageCodecBenchmark {
+    private ByteBuffer stateMessage;
+    private ByteBuffer callDataMessage;
+
+    @Setup
+    public void setUp() {
+        stateMessage = CallMessageCodec.encodeState("3f2b8c1e-7a4d-4e0b-9c55-1d2e3f4a5b6c",
+                CallProcessingState.ready, true, -1, null, null);
+        CallData callData = new CallData();
+        callData.callId = "3f2b8c1e-7a4d-4e0b-9c55-1d2e3f4a5b6c";
+        callData.callerName = "Dr. Jane Doe";
+        callData.description = "Video consultation";
+        callDataMessage = CallMessageCodec.encodeCallData(callData);
+    }
+
+    @Benchmark
+    public void decodeState(final Blackhole blackhole) {
+        stateMessage.rewind();
+        CallMessageCodec.decode(stateMessage, new BlackholeHandler(blackhole));
+    }
+
+    @Benchmark
+    public void decodeCallData(final Blackhole blackhole) {
+        callDataMessage.rewind();
+        CallMessageCodec.decode(callDataMessage, new BlackholeHandler(blackhole));
+    }
+
+    private static class BlackholeHandler implements CallMessageCodec.Handler {
+        private final Blackhole blackhole;
+
+        BlackholeHandler(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onState(String callId, CallProcessingState processingState, boolean playing, long updateTime, Integer errorCode, String errorMessage) {
+            blackhole.consume(callId);
+            blackhole.consume(processingState);
+        }
+
+        @Override
+        public void onCallData(CallData callData) {
+            blackhole.consume(callData);
+        }
+    }
+}
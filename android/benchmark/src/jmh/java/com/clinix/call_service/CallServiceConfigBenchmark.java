@@ -0,0 +1,60 @@
+package com.clinix.call_service;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Reading the browsable root extras, from the saved JSON and from the cached Bundle. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CallServiceConfigBenchmark {
+    private Context context;
+    private CallServiceConfig cached;
+
+    @Setup
+    public void setUp() {
+        Map<String, Object> extras = new HashMap<String, Object>();
+        extras.put("android.media.browse.CONTENT_STYLE_SUPPORTED", true);
+        extras.put("android.media.browse.CONTENT_STYLE_BROWSABLE_HINT", 1);
+        extras.put("android.media.browse.CONTENT_STYLE_PLAYABLE_HINT", 2);
+        extras.put("since", 1L << 40);
+        extras.put("ratio", 0.5);
+        extras.put("label", "Consultations");
+        MapSharedPreferences preferences = new MapSharedPreferences();
+        context = MapSharedPreferences.context(preferences);
+        CallServiceConfig.Editor config = new CallServiceConfig(context).edit();
+        config.setBrowsableRootExtras(extras);
+        config.build().save();
+        cached = new CallServiceConfig(context);
+        cached.getBrowsableRootExtras();
+    }
+
+    /** First read after the config is loaded, which parses the JSON. */
+    @Benchmark
+    public Bundle browsableRootExtrasCold() {
+        return new CallServiceConfig(context).getBrowsableRootExtras();
+    }
+
+    @Benchmark
+    public Bundle browsableRootExtrasCached() {
+        return cached.getBrowsableRootExtras();
+    }
+}
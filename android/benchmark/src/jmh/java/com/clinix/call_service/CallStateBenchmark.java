@@ -0,0 +1,89 @@
+package com.clinix.call_service;
+
+import android.os.Handler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The native part of {@code CallService.setState}: coalescing, the transition lookup and phase
+ * accounting. Notification and wake lock side effects need a device and are not covered.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CallStateBenchmark {
+    private CallStateMachine stateMachine;
+    private StateUpdateCoalescer immediate;
+    private StateUpdateCoalescer coalescing;
+    private CallProcessingState state;
+    private boolean playing;
+    private long stateEnteredNanos;
+    private int actions;
+
+    @Setup
+    public void setUp() {
+        stateMachine = new CallStateMachine();
+        StateUpdateCoalescer.Sink sink = new StateUpdateCoalescer.Sink() {
+            @Override
+            public void apply(CallProcessingState processingState, boolean newPlaying, Integer errorCode, String errorMessage) {
+                // Mirrors CallService.applyState up to the side effects.
+                int transitionActions = stateMachine.transition(state, playing, processingState, newPlaying);
+                if (transitionActions == CallStateMachine.REJECTED) return;
+                if (state != processingState) {
+                    long now = System.nanoTime();
+                    stateMachine.recordPhase(state, now - stateEnteredNanos);
+                    stateEnteredNanos = now;
+                }
+                state = processingState;
+                playing = newPlaying;
+                actions |= transitionActions;
+            }
+        };
+        immediate = new StateUpdateCoalescer(new Handler(), sink, 0);
+        coalescing = new StateUpdateCoalescer(new Handler(), sink, CallServiceConfig.DEFAULT_STATE_COALESCE_WINDOW_MS);
+        state = CallProcessingState.idle;
+        stateEnteredNanos = System.nanoTime();
+    }
+
+    @Benchmark
+    public int transition() {
+        return stateMachine.transition(CallProcessingState.buffering, true, CallProcessingState.ready, true);
+    }
+
+    /** A full call, one platform message per state, applied as it arrives. */
+    @Benchmark
+    public int callLifecycle() {
+        immediate.submit(CallProcessingState.loading, true, null, null);
+        immediate.submit(CallProcessingState.buffering, true, null, null);
+        immediate.submit(CallProcessingState.ready, true, null, null);
+        immediate.submit(CallProcessingState.completed, false, null, null);
+        immediate.submit(CallProcessingState.idle, false, null, null);
+        return actions;
+    }
+
+    /** The same call with the default coalescing window, flushing where the window would end. */
+    @Benchmark
+    public int callLifecycleCoalesced() {
+        coalescing.submit(CallProcessingState.loading, true, null, null);
+        coalescing.submit(CallProcessingState.buffering, true, null, null);
+        coalescing.submit(CallProcessingState.ready, true, null, null);
+        coalescing.flush();
+        coalescing.submit(CallProcessingState.completed, false, null, null);
+        coalescing.submit(CallProcessingState.idle, false, null, null);
+        return actions;
+    }
+}
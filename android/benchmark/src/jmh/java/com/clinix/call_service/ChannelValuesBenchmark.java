@@ -0,0 +1,82 @@
+package com.clinix.call_service;
+
+import android.os.Bundle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Conversions done for every method channel message. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChannelValuesBenchmark {
+    private Object intValue;
+    private Object longValue;
+    private Object intSizedLongValue;
+    private Bundle extras;
+    private Map<String, Object> rawMediaItem;
+
+    @Setup
+    public void setUp() {
+        // Boxed values as the standard message codec delivers them.
+        intValue = Integer.valueOf(1069);
+        longValue = Long.valueOf(1L << 40);
+        intSizedLongValue = Long.valueOf(1069);
+        extras = new Bundle();
+        extras.putString("android.media.browse.extra.PAGE", "0");
+        extras.putInt("android.media.browse.extra.PAGE_SIZE", 20);
+        extras.putLong("since", 1L << 40);
+        extras.putBoolean("recent", true);
+        extras.putDouble("ratio", 0.5);
+        rawMediaItem = new HashMap<String, Object>();
+        rawMediaItem.put("id", "3f2b8c1e-7a4d-4e0b-9c55-1d2e3f4a5b6c");
+        rawMediaItem.put("title", "Dr. Jane Doe");
+        rawMediaItem.put("album", "Video consultation");
+        rawMediaItem.put("duration", 0);
+    }
+
+    @Benchmark
+    public Map<String, Object> mapOf() {
+        return ChannelValues.mapOf("callId", "3f2b8c1e", "action", Constants.ACTION_ANSWER_CALL, "digit", null);
+    }
+
+    @Benchmark
+    public Long getLongFromInteger() {
+        return ChannelValues.getLong(intValue);
+    }
+
+    @Benchmark
+    public Long getLongFromLong() {
+        return ChannelValues.getLong(longValue);
+    }
+
+    @Benchmark
+    public Integer getIntFromLong() {
+        return ChannelValues.getInt(intSizedLongValue);
+    }
+
+    @Benchmark
+    public Map<String, Object> bundleToMap() {
+        return ChannelValues.bundleToMap(extras);
+    }
+
+    @Benchmark
+    public CallData createCallData() {
+        return ChannelValues.createCallData(rawMediaItem);
+    }
+}
@@ -0,0 +1,66 @@
+package com.clinix.call_service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+
+/** In-memory preferences so {@link CallServiceConfig} can be built without a device. */
+class MapSharedPreferences implements SharedPreferences {
+    final HashMap<String, Object> values = new HashMap<String, Object>();
+
+    static Context context(final SharedPreferences preferences) {
+        return new Context() {
+            @Override
+            public SharedPreferences getSharedPreferences(String name, int mode) {
+                return preferences;
+            }
+        };
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = values.get(key);
+        return value != null ? (String)value : defValue;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = values.get(key);
+        return value != null ? (Integer)value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = values.get(key);
+        return value != null ? (Boolean)value : defValue;
+    }
+
+    @Override
+    public Editor edit() {
+        return new Editor() {
+            @Override
+            public Editor putString(String key, String value) {
+                values.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                values.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                values.put(key, value);
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                return true;
+            }
+        };
+    }
+}
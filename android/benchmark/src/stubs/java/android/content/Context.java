@@ -0,0 +1,8 @@
+package android.content;
+
+/** JVM stand-in for the parts of {@code android.content.Context} the benchmarked code uses. */
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+}
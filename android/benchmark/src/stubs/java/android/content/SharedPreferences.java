@@ -0,0 +1,22 @@
+package android.content;
+
+/** JVM stand-in for the parts of {@code android.content.SharedPreferences} the benchmarked code uses. */
+public interface SharedPreferences {
+    interface Editor {
+        Editor putString(String key, String value);
+
+        Editor putInt(String key, int value);
+
+        Editor putBoolean(String key, boolean value);
+
+        boolean commit();
+    }
+
+    String getString(String key, String defValue);
+
+    int getInt(String key, int defValue);
+
+    boolean getBoolean(String key, boolean defValue);
+
+    Editor edit();
+}
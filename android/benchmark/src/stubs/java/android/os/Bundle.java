@@ -0,0 +1,49 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Set;
+
+/** JVM stand-in for the parts of {@code android.os.Bundle} the benchmarked code uses. */
+public class Bundle {
+    private final HashMap<String, Object> values;
+
+    public Bundle() {
+        values = new HashMap<String, Object>();
+    }
+
+    public Bundle(Bundle other) {
+        values = new HashMap<String, Object>(other.values);
+    }
+
+    public Set<String> keySet() {
+        return values.keySet();
+    }
+
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public void putInt(String key, int value) {
+        values.put(key, value);
+    }
+
+    public void putLong(String key, long value) {
+        values.put(key, value);
+    }
+
+    public void putDouble(String key, double value) {
+        values.put(key, value);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        values.put(key, value);
+    }
+
+    public void putString(String key, String value) {
+        values.put(key, value);
+    }
+}
@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * JVM stand-in for {@code android.os.Handler}. Nothing is ever run; benchmarks flush explicitly.
+ */
+public class Handler {
+    public boolean post(Runnable r) {
+        return true;
+    }
+
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        return true;
+    }
+
+    public void removeCallbacks(Runnable r) {
+    }
+}
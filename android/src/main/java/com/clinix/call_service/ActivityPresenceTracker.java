@@ -0,0 +1,129 @@
+package com.clinix.call_service;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of which activities of the app exist and which are in the foreground, driven by
+ * {@link Application.ActivityLifecycleCallbacks}. Queries are a single map lookup with no IPC, so
+ * they can be made on every call event.
+ */
+public class ActivityPresenceTracker implements Application.ActivityLifecycleCallbacks {
+    private static class Presence {
+        volatile int created;
+        volatile int started;
+        volatile int resumed;
+    }
+
+    private static ActivityPresenceTracker instance;
+    private final ConcurrentHashMap<String, Presence> activities = new ConcurrentHashMap<>();
+    private volatile int resumedCount;
+
+    /** Registers the tracker with the application once; later calls are ignored. */
+    public static synchronized void register(Application application) {
+        if (instance != null || application == null) return;
+        instance = new ActivityPresenceTracker();
+        application.registerActivityLifecycleCallbacks(instance);
+    }
+
+    /**
+     * Records an activity created before the tracker was registered, such as the activity whose
+     * engine registered the plugin.
+     */
+    public static void seed(Activity activity) {
+        ActivityPresenceTracker tracker = instance;
+        if (tracker == null) return;
+        Presence presence = tracker.presence(activity);
+        if (presence.created == 0) {
+            presence.created = 1;
+        }
+    }
+
+    /** Whether an activity of the given class exists, in the foreground or not. */
+    public static boolean isRunning(String className) {
+        Presence presence = find(className);
+        return presence != null && presence.created > 0;
+    }
+
+    /** Whether an activity of the given class is resumed. */
+    public static boolean isForeground(String className) {
+        Presence presence = find(className);
+        return presence != null && presence.resumed > 0;
+    }
+
+    public static boolean isAppForeground() {
+        ActivityPresenceTracker tracker = instance;
+        return tracker != null && tracker.resumedCount > 0;
+    }
+
+    /**
+     * Whether the call UI is on screen: the configured call activity if there is one, otherwise
+     * any activity of the app.
+     */
+    public static boolean isCallUiForeground(String activityClassName) {
+        return activityClassName != null ? isForeground(activityClassName) : isAppForeground();
+    }
+
+    private static Presence find(String className) {
+        ActivityPresenceTracker tracker = instance;
+        if (tracker == null || className == null) return null;
+        return tracker.activities.get(className);
+    }
+
+    private Presence presence(Activity activity) {
+        String className = activity.getClass().getName();
+        Presence presence = activities.get(className);
+        if (presence == null) {
+            presence = new Presence();
+            Presence existing = activities.putIfAbsent(className, presence);
+            if (existing != null) presence = existing;
+        }
+        return presence;
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        presence(activity).created++;
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        presence(activity).started++;
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+        presence(activity).resumed++;
+        resumedCount++;
+        // The user may be back from changing permissions in the settings.
+        PermissionUtils.invalidateGrantCache();
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+        Presence presence = presence(activity);
+        if (presence.resumed > 0) {
+            presence.resumed--;
+            resumedCount--;
+        }
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        Presence presence = presence(activity);
+        if (presence.started > 0) presence.started--;
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        Presence presence = presence(activity);
+        if (presence.created > 0) presence.created--;
+    }
+}
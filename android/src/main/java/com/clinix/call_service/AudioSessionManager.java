@@ -0,0 +1,271 @@
+package com.clinix.call_service;
+
+import android.media.AudioAttributes;
+import android.media.AudioFocusRequest;
+import android.media.AudioManager;
+import android.os.Build;
+import android.os.Handler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Owns the audio side of calls: audio focus, communication mode, and the mute, hold and speaker
+ * state. What was last applied to {@link AudioManager} is mirrored here, so requests that change
+ * nothing cost no IPC, and every change that does is reported to the {@link Listener} as a diff.
+ *
+ * <p>Mute, hold and speaker can be set before the session starts; they are applied when it does.
+ * Holding mutes the microphone without forgetting whether the call itself is muted.
+ *
+ * <p>Must only be used from the thread of the given {@link Handler}.
+ */
+public class AudioSessionManager {
+    public interface Listener {
+        /** Called with the keys of {@link #toStateMap} that changed and their new values. */
+        void onAudioSessionChanged(Map<String, Object> changes);
+    }
+
+    private final Handler handler;
+    private final AudioManager audioManager;
+    private final Listener listener;
+    private AudioFocusRequest focusRequest;
+
+    // Requested state.
+    private boolean active;
+    private boolean muted;
+    private boolean held;
+    private boolean speakerOn;
+    // Applied state, as last set on the AudioManager.
+    private boolean focusRequested;
+    private boolean focusHeld;
+    private boolean modeApplied;
+    private boolean micMuteApplied;
+    private boolean speakerApplied;
+
+    private long requestCount;
+    private long skippedCount;
+    private long ipcCount;
+    private long focusLossCount;
+
+    private final AudioManager.OnAudioFocusChangeListener focusListener = new AudioManager.OnAudioFocusChangeListener() {
+        @Override
+        public void onAudioFocusChange(final int focusChange) {
+            // Pre-O focus changes arrive on the main thread.
+            CallWorker.run(new Runnable() {
+                @Override
+                public void run() {
+                    onFocusChange(focusChange);
+                }
+            });
+        }
+    };
+
+    public AudioSessionManager(Handler handler, AudioManager audioManager, Listener listener) {
+        this.handler = handler;
+        this.audioManager = audioManager;
+        this.listener = listener;
+    }
+
+    /** Takes audio focus and enters communication mode, applying the requested call state. */
+    public void startSession() {
+        requestCount++;
+        if (active) {
+            skippedCount++;
+            return;
+        }
+        Map<String, Object> changes = new HashMap<String, Object>();
+        active = true;
+        changes.put("active", true);
+        requestFocus(changes);
+        if (!modeApplied) {
+            audioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
+            ipcCount++;
+            modeApplied = true;
+        }
+        applyMicMute();
+        applySpeaker();
+        listener.onAudioSessionChanged(changes);
+    }
+
+    /** Gives up audio focus and communication mode, and forgets the call state. */
+    public void endSession() {
+        requestCount++;
+        if (!active && !focusRequested && !modeApplied && !micMuteApplied && !speakerApplied) {
+            skippedCount++;
+            return;
+        }
+        Map<String, Object> changes = new HashMap<String, Object>();
+        if (active) {
+            active = false;
+            changes.put("active", false);
+        }
+        setState(false, false, false, changes);
+        applyMicMute();
+        applySpeaker();
+        if (modeApplied) {
+            audioManager.setMode(AudioManager.MODE_NORMAL);
+            ipcCount++;
+            modeApplied = false;
+        }
+        abandonFocus(changes);
+        listener.onAudioSessionChanged(changes);
+    }
+
+    public void setMuted(boolean muted) {
+        update(muted, held, speakerOn);
+    }
+
+    public void setHeld(boolean held) {
+        update(muted, held, speakerOn);
+    }
+
+    public void setSpeakerOn(boolean speakerOn) {
+        update(muted, held, speakerOn);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public boolean isMuted() {
+        return muted;
+    }
+
+    public boolean isHeld() {
+        return held;
+    }
+
+    public boolean isSpeakerOn() {
+        return speakerOn;
+    }
+
+    /**
+     * Whether call audio plays through the earpiece, i.e. not the speaker or a headset. While the
+     * session is active the speaker state is the mirrored one; otherwise the app may be routing the
+     * audio itself, so the {@link AudioManager} is asked.
+     */
+    public boolean isEarpieceRoute() {
+        boolean speaker = active ? speakerOn : audioManager.isSpeakerphoneOn();
+        return !speaker && !audioManager.isWiredHeadsetOn() && !audioManager.isBluetoothScoOn();
+    }
+
+    public Map<String, Object> toStateMap() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("active", active);
+        map.put("focus", focusHeld);
+        map.put("muted", muted);
+        map.put("held", held);
+        map.put("speakerOn", speakerOn);
+        return map;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("requests", requestCount);
+        map.put("skipped", skippedCount);
+        map.put("ipc", ipcCount);
+        map.put("focusLosses", focusLossCount);
+        map.put("state", toStateMap());
+        return map;
+    }
+
+    private void update(boolean muted, boolean held, boolean speakerOn) {
+        requestCount++;
+        if (muted == this.muted && held == this.held && speakerOn == this.speakerOn) {
+            skippedCount++;
+            return;
+        }
+        Map<String, Object> changes = new HashMap<String, Object>();
+        setState(muted, held, speakerOn, changes);
+        if (active) {
+            applyMicMute();
+            applySpeaker();
+        }
+        listener.onAudioSessionChanged(changes);
+    }
+
+    private void setState(boolean muted, boolean held, boolean speakerOn, Map<String, Object> changes) {
+        if (muted != this.muted) {
+            this.muted = muted;
+            changes.put("muted", muted);
+        }
+        if (held != this.held) {
+            this.held = held;
+            changes.put("held", held);
+        }
+        if (speakerOn != this.speakerOn) {
+            this.speakerOn = speakerOn;
+            changes.put("speakerOn", speakerOn);
+        }
+    }
+
+    private void applyMicMute() {
+        boolean micMute = muted || held;
+        if (micMute == micMuteApplied) return;
+        audioManager.setMicrophoneMute(micMute);
+        ipcCount++;
+        micMuteApplied = micMute;
+    }
+
+    private void applySpeaker() {
+        if (speakerOn == speakerApplied) return;
+        audioManager.setSpeakerphoneOn(speakerOn);
+        ipcCount++;
+        speakerApplied = speakerOn;
+    }
+
+    private void requestFocus(Map<String, Object> changes) {
+        if (focusRequested) return;
+        int result;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            if (focusRequest == null) {
+                focusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN_TRANSIENT)
+                        .setAudioAttributes(new AudioAttributes.Builder()
+                                .setUsage(AudioAttributes.USAGE_VOICE_COMMUNICATION)
+                                .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                                .build())
+                        .setOnAudioFocusChangeListener(focusListener, handler)
+                        .build();
+            }
+            result = audioManager.requestAudioFocus(focusRequest);
+        } else {
+            result = audioManager.requestAudioFocus(focusListener, AudioManager.STREAM_VOICE_CALL,
+                    AudioManager.AUDIOFOCUS_GAIN_TRANSIENT);
+        }
+        ipcCount++;
+        focusRequested = result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+        focusHeld = focusRequested;
+        changes.put("focus", focusHeld);
+    }
+
+    private void abandonFocus(Map<String, Object> changes) {
+        if (!focusRequested) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            audioManager.abandonAudioFocusRequest(focusRequest);
+        } else {
+            audioManager.abandonAudioFocus(focusListener);
+        }
+        ipcCount++;
+        focusRequested = false;
+        if (focusHeld) {
+            focusHeld = false;
+            changes.put("focus", false);
+        }
+    }
+
+    private void onFocusChange(int focusChange) {
+        boolean focus = focusChange == AudioManager.AUDIOFOCUS_GAIN;
+        if (!focus) {
+            focusLossCount++;
+        }
+        if (focusChange == AudioManager.AUDIOFOCUS_LOSS) {
+            // Permanent: there is nothing left to abandon.
+            focusRequested = false;
+        }
+        if (focus == focusHeld || !active) return;
+        focusHeld = focus;
+        Map<String, Object> changes = new HashMap<String, Object>();
+        changes.put("focus", focus);
+        listener.onAudioSessionChanged(changes);
+    }
+}
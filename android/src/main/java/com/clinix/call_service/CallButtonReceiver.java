@@ -10,6 +10,8 @@ import androidx.annotation.RequiresApi;
 public class CallButtonReceiver extends BroadcastReceiver {
     public static final String ACTION_NOTIFICATION_DELETE = "com.clinix.CallService.intent.action.ACTION_NOTIFICATION_DELETE";
     public static final String ACTION_STOP = "com.clinix.CallService.intent.action.ACTION_STOP";
+    public static final String ACTION_ANSWER = "com.clinix.CallService.intent.action.ACTION_ANSWER";
+    public static final String ACTION_DECLINE = "com.clinix.CallService.intent.action.ACTION_DECLINE";
     @RequiresApi(api = Build.VERSION_CODES.M)
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -22,7 +24,16 @@ public class CallButtonReceiver extends BroadcastReceiver {
         if (intent != null
                 && ACTION_STOP.equals(intent.getAction())
                 && CallService.instance != null) {
-            CallService.instance.handleStop();
+            CallService.instance.hangUp(intent.getStringExtra(Constants.EXTRA_CALL_UUID), CallService.END_REASON_HANG_UP);
+            return;
+        }
+        if (intent != null
+                && (ACTION_ANSWER.equals(intent.getAction()) || ACTION_DECLINE.equals(intent.getAction()))
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // From the ring notification, which may be up before the service or engine is.
+            CallConnectionService.performAction(
+                    ACTION_ANSWER.equals(intent.getAction()) ? Constants.ACTION_ANSWER_CALL : Constants.ACTION_END_CALL,
+                    intent.getStringExtra(Constants.EXTRA_CALL_UUID));
             return;
         }
         //This is used to close the notification tray
@@ -0,0 +1,169 @@
+package com.clinix.call_service;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.telecom.CallAudioState;
+import android.telecom.Connection;
+import android.telecom.DisconnectCause;
+import android.telecom.PhoneAccount;
+import android.telecom.TelecomManager;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * A self-managed Telecom connection for one call. The system drives call control (answer, reject,
+ * hold, mute, DTMF) through these callbacks, which update the connection state right away and
+ * forward the matching {@link Constants} action to Dart. The actions are queued until a client is
+ * configured, since Telecom may call us before the Flutter engine has started.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+public class CallConnection extends Connection {
+    private static final String TAG = "CliniX:CallConnection";
+    public final String callId;
+    private final Context context;
+    private final String callerName;
+    private boolean muted;
+
+    CallConnection(Context context, String callId, String callerName, String number) {
+        this.context = context.getApplicationContext();
+        this.callId = callId;
+        this.callerName = callerName;
+        setConnectionProperties(PROPERTY_SELF_MANAGED);
+        setConnectionCapabilities(CAPABILITY_HOLD | CAPABILITY_SUPPORT_HOLD | CAPABILITY_MUTE);
+        setAudioModeIsVoip(true);
+        if (number != null) {
+            setAddress(Uri.fromParts(PhoneAccount.SCHEME_TEL, number, null), TelecomManager.PRESENTATION_ALLOWED);
+        }
+        if (callerName != null) {
+            setCallerDisplayName(callerName, TelecomManager.PRESENTATION_ALLOWED);
+        }
+    }
+
+    @Override
+    public void onShowIncomingCallUi() {
+        CallService service = CallService.instance;
+        CallServiceConfig config = CallServiceConfigStore.peek(context);
+        boolean callUiForeground = service != null ? service.isActivityForeground()
+                : ActivityPresenceTracker.isCallUiForeground(config.activityClassName);
+        if (callUiForeground) {
+            // The call screen is already showing, so it rings in the app instead of under a
+            // full-screen notification.
+            dispatch(Constants.ACTION_INCOMING_CALL, null);
+            return;
+        }
+        CallResourceRegistry resources = service != null ? service.getCallResources() : null;
+        if (resources == null) {
+            resources = CallResourceRegistry.get(context, config);
+        }
+        IncomingCallNotifier.show(context, resources, callId, callerName);
+        dispatch(Constants.ACTION_WAKE_APP, null);
+    }
+
+    @Override
+    public void onAnswer() {
+        IncomingCallNotifier.cancel(context, callId);
+        setActive();
+        dispatch(Constants.ACTION_ANSWER_CALL, null);
+    }
+
+    @Override
+    public void onAnswer(int videoState) {
+        onAnswer();
+    }
+
+    @Override
+    public void onReject() {
+        end(DisconnectCause.REJECTED);
+        dispatch(Constants.ACTION_END_CALL, null);
+        hangUp();
+    }
+
+    @Override
+    public void onDisconnect() {
+        end(DisconnectCause.LOCAL);
+        dispatch(Constants.ACTION_END_CALL, null);
+        hangUp();
+    }
+
+    @Override
+    public void onAbort() {
+        end(DisconnectCause.CANCELED);
+        dispatch(Constants.ACTION_END_CALL, null);
+        hangUp();
+    }
+
+    @Override
+    public void onHold() {
+        setOnHold();
+        applyAudioAction(Constants.ACTION_HOLD_CALL);
+        dispatch(Constants.ACTION_HOLD_CALL, null);
+    }
+
+    @Override
+    public void onUnhold() {
+        setActive();
+        applyAudioAction(Constants.ACTION_UNHOLD_CALL);
+        dispatch(Constants.ACTION_UNHOLD_CALL, null);
+    }
+
+    @Override
+    public void onCallAudioStateChanged(CallAudioState state) {
+        if (state.isMuted() == muted) return;
+        muted = state.isMuted();
+        applyAudioAction(muted ? Constants.ACTION_MUTE_CALL : Constants.ACTION_UNMUTE_CALL);
+        dispatch(muted ? Constants.ACTION_MUTE_CALL : Constants.ACTION_UNMUTE_CALL, null);
+    }
+
+    @Override
+    public void onPlayDtmfTone(char c) {
+        // Self-managed calls play their own tones.
+        CallService service = CallService.instance;
+        if (service != null) {
+            service.playDtmfTone(callId, c);
+        } else {
+            dispatch(Constants.ACTION_DTMF_TONE, String.valueOf(c));
+        }
+    }
+
+    /** Marks the call connected once Dart reports it ready. */
+    void onReady() {
+        int state = getState();
+        if (state == STATE_RINGING || state == STATE_DIALING) {
+            IncomingCallNotifier.cancel(context, callId);
+            setActive();
+        }
+    }
+
+    /** Disconnects without reporting back to Dart, for calls Dart has already ended. */
+    void end(int cause) {
+        IncomingCallNotifier.cancel(context, callId);
+        CallConnectionService.remove(this);
+        setDisconnected(new DisconnectCause(cause));
+        destroy();
+    }
+
+    /** Tears the call down natively, e.g. when it is hung up from a headset or the car. */
+    private void hangUp() {
+        CallService service = CallService.instance;
+        if (service != null) {
+            service.hangUp(callId, CallService.END_REASON_TELECOM);
+        }
+    }
+
+    private void applyAudioAction(String action) {
+        CallService service = CallService.instance;
+        if (service != null) {
+            service.applyAudioAction(action);
+        }
+    }
+
+    private void dispatch(String action, String digit) {
+        Log.d(TAG, callId + ": " + action);
+        CallServicePlugin.queueClientEvent("onCallAction", CallServicePlugin.mapOf(
+                "action", action,
+                "callId", callId,
+                "digit", digit));
+    }
+}
@@ -0,0 +1,184 @@
+package com.clinix.call_service;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.telecom.Connection;
+import android.telecom.ConnectionRequest;
+import android.telecom.ConnectionService;
+import android.telecom.DisconnectCause;
+import android.telecom.PhoneAccount;
+import android.telecom.PhoneAccountHandle;
+import android.telecom.TelecomManager;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Self-managed Telecom backend. Incoming calls are reported to the system with
+ * {@link #reportIncomingCall}, which rings natively without waiting for the Flutter engine, and
+ * call control then arrives through {@link CallConnection} callbacks.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+public class CallConnectionService extends ConnectionService {
+    private static final String TAG = "CliniX:Telecom";
+    private static final String PHONE_ACCOUNT_ID = "call_service";
+    private static final ConcurrentHashMap<String, CallConnection> connections = new ConcurrentHashMap<>();
+    private static volatile PhoneAccountHandle phoneAccountHandle;
+
+    /** Registers the app's self-managed phone account once and returns its handle. */
+    public static PhoneAccountHandle registerPhoneAccount(Context context) {
+        PhoneAccountHandle handle = phoneAccountHandle;
+        if (handle != null) return handle;
+        synchronized (CallConnectionService.class) {
+            if (phoneAccountHandle == null) {
+                Context appContext = context.getApplicationContext();
+                handle = new PhoneAccountHandle(new ComponentName(appContext, CallConnectionService.class), PHONE_ACCOUNT_ID);
+                PhoneAccount account = PhoneAccount.builder(handle, appContext.getPackageName())
+                        .setCapabilities(PhoneAccount.CAPABILITY_SELF_MANAGED)
+                        .addSupportedUriScheme(PhoneAccount.SCHEME_TEL)
+                        .addSupportedUriScheme(PhoneAccount.SCHEME_SIP)
+                        .build();
+                getTelecomManager(appContext).registerPhoneAccount(account);
+                phoneAccountHandle = handle;
+            }
+            return phoneAccountHandle;
+        }
+    }
+
+    public static TelecomManager getTelecomManager(Context context) {
+        return (TelecomManager)context.getSystemService(Context.TELECOM_SERVICE);
+    }
+
+    /**
+     * Reports an incoming call to Telecom. Returns false if the system does not currently allow
+     * another incoming call, e.g. during an emergency call.
+     */
+    public static boolean reportIncomingCall(Context context, String callId, String callerName, String number) {
+        PhoneAccountHandle handle = registerPhoneAccount(context);
+        TelecomManager telecomManager = getTelecomManager(context);
+        if (!telecomManager.isIncomingCallPermitted(handle)) return false;
+        Bundle extras = new Bundle();
+        extras.putParcelable(TelecomManager.EXTRA_PHONE_ACCOUNT_HANDLE, handle);
+        extras.putBundle(TelecomManager.EXTRA_INCOMING_CALL_EXTRAS, callExtras(callId, callerName, number));
+        telecomManager.addNewIncomingCall(handle, extras);
+        return true;
+    }
+
+    /** Places an outgoing call through Telecom. Requires MANAGE_OWN_CALLS. */
+    public static void placeCall(Context context, String callId, String callerName, String number) {
+        PhoneAccountHandle handle = registerPhoneAccount(context);
+        Bundle extras = new Bundle();
+        extras.putParcelable(TelecomManager.EXTRA_PHONE_ACCOUNT_HANDLE, handle);
+        extras.putBundle(TelecomManager.EXTRA_OUTGOING_CALL_EXTRAS, callExtras(callId, callerName, number));
+        getTelecomManager(context).placeCall(Uri.fromParts(PhoneAccount.SCHEME_TEL, number, null), extras);
+    }
+
+    public static CallConnection getConnection(String callId) {
+        return callId == null ? null : connections.get(callId);
+    }
+
+    /**
+     * Performs a {@link Constants} call-control action on the call's connection as if Telecom had
+     * requested it. Returns false if the action does not apply or the call has no connection.
+     */
+    public static boolean performAction(String action, String callId) {
+        CallConnection connection = getConnection(callId);
+        if (connection == null) return false;
+        switch (action) {
+            case Constants.ACTION_ANSWER_CALL:
+                connection.onAnswer();
+                return true;
+            case Constants.ACTION_END_CALL:
+                if (connection.getState() == Connection.STATE_RINGING) {
+                    connection.onReject();
+                } else {
+                    connection.onDisconnect();
+                }
+                return true;
+            case Constants.ACTION_HOLD_CALL:
+                connection.onHold();
+                return true;
+            case Constants.ACTION_UNHOLD_CALL:
+                connection.onUnhold();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Called when Dart reports the call ready. */
+    static void onCallReady(String callId) {
+        CallConnection connection = getConnection(callId);
+        if (connection != null) {
+            connection.onReady();
+        }
+    }
+
+    /** Called when Dart has ended the call. */
+    static void onCallEnded(String callId) {
+        CallConnection connection = getConnection(callId);
+        if (connection != null) {
+            connection.end(DisconnectCause.LOCAL);
+        }
+    }
+
+    static void remove(CallConnection connection) {
+        connections.remove(connection.callId, connection);
+    }
+
+    private static Bundle callExtras(String callId, String callerName, String number) {
+        Bundle extras = new Bundle();
+        extras.putString(Constants.EXTRA_CALL_UUID, callId);
+        extras.putString(Constants.EXTRA_CALLER_NAME, callerName);
+        extras.putString(Constants.EXTRA_CALL_NUMBER, number);
+        return extras;
+    }
+
+    @Override
+    public Connection onCreateIncomingConnection(PhoneAccountHandle handle, ConnectionRequest request) {
+        CallConnection connection = createConnection(request.getExtras().getBundle(TelecomManager.EXTRA_INCOMING_CALL_EXTRAS));
+        connection.setRinging();
+        // Have the engine ready by the time the user answers.
+        CallServicePlugin.warmUpFlutterEngine(this, false);
+        return connection;
+    }
+
+    @Override
+    public Connection onCreateOutgoingConnection(PhoneAccountHandle handle, ConnectionRequest request) {
+        CallConnection connection = createConnection(request.getExtras().getBundle(TelecomManager.EXTRA_OUTGOING_CALL_EXTRAS));
+        connection.setDialing();
+        return connection;
+    }
+
+    @Override
+    public void onCreateIncomingConnectionFailed(PhoneAccountHandle handle, ConnectionRequest request) {
+        onConnectionFailed(request.getExtras().getBundle(TelecomManager.EXTRA_INCOMING_CALL_EXTRAS));
+    }
+
+    @Override
+    public void onCreateOutgoingConnectionFailed(PhoneAccountHandle handle, ConnectionRequest request) {
+        onConnectionFailed(request.getExtras().getBundle(TelecomManager.EXTRA_OUTGOING_CALL_EXTRAS));
+    }
+
+    private CallConnection createConnection(Bundle extras) {
+        String callId = CallRegistry.key(extras != null ? extras.getString(Constants.EXTRA_CALL_UUID) : null);
+        CallConnection connection = new CallConnection(
+                this,
+                callId,
+                extras != null ? extras.getString(Constants.EXTRA_CALLER_NAME) : null,
+                extras != null ? extras.getString(Constants.EXTRA_CALL_NUMBER) : null);
+        connections.put(callId, connection);
+        return connection;
+    }
+
+    private void onConnectionFailed(Bundle extras) {
+        String callId = extras != null ? extras.getString(Constants.EXTRA_CALL_UUID) : null;
+        Log.w(TAG, "Telecom refused call " + callId);
+        CallServicePlugin.queueClientEvent("onCallFailed", CallServicePlugin.mapOf("callId", callId));
+    }
+}
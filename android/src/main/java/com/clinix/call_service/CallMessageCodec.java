@@ -0,0 +1,135 @@
+package com.clinix.call_service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Fixed little-endian layout for the binary handler channel. Every message starts with a version
+ * byte and a type byte:
+ *
+ * <pre>
+ * STATE:     u8 version | u8 type=1 | u8 processingState | u8 playing | i64 updateTime
+ *            | i32 errorCode | str errorMessage | str callId (version 2 and later)
+ * CALL_DATA: u8 version | u8 type=2 | str callId | str callerName | str description
+ * </pre>
+ *
+ * A {@code str} is an i32 byte length followed by UTF-8 bytes, with length -1 meaning null.
+ * An {@code updateTime} of -1 means "now" and an {@code errorCode} of {@link #NO_ERROR_CODE}
+ * means no error code. A STATE message without a call id applies to the active call. Messages
+ * are decoded straight into {@link CallProcessingState} and {@link CallData} without going
+ * through the standard codec's maps.
+ */
+public class CallMessageCodec {
+    public static final byte VERSION = 2;
+    private static final byte MIN_VERSION = 1;
+    public static final byte TYPE_STATE = 1;
+    public static final byte TYPE_CALL_DATA = 2;
+    public static final int NO_ERROR_CODE = Integer.MIN_VALUE;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final CallProcessingState[] PROCESSING_STATES = CallProcessingState.values();
+
+    public interface Handler {
+        void onState(String callId, CallProcessingState processingState, boolean playing, long updateTime, Integer errorCode, String errorMessage);
+        void onCallData(CallData callData);
+    }
+
+    /**
+     * Decodes one message and passes it to {@code handler}.
+     *
+     * @throws IllegalArgumentException if the version or type is unknown.
+     */
+    public static void decode(ByteBuffer buffer, Handler handler) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        byte version = buffer.get();
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported message version " + version);
+        }
+        byte type = buffer.get();
+        switch (type) {
+            case TYPE_STATE: {
+                CallProcessingState processingState = PROCESSING_STATES[buffer.get()];
+                boolean playing = buffer.get() != 0;
+                long updateTime = buffer.getLong();
+                if (updateTime == -1) {
+                    updateTime = System.currentTimeMillis();
+                }
+                int errorCode = buffer.getInt();
+                String errorMessage = getString(buffer);
+                String callId = version >= 2 ? getString(buffer) : null;
+                handler.onState(callId, processingState, playing, updateTime,
+                        errorCode == NO_ERROR_CODE ? null : Integer.valueOf(errorCode), errorMessage);
+                break;
+            }
+            case TYPE_CALL_DATA: {
+                CallData callData = new CallData();
+                callData.callId = getString(buffer);
+                callData.callerName = getString(buffer);
+                callData.description = getString(buffer);
+                handler.onCallData(callData);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported message type " + type);
+        }
+    }
+
+    public static ByteBuffer encodeState(String callId, CallProcessingState processingState, boolean playing, long updateTime, Integer errorCode, String errorMessage) {
+        byte[] message = errorMessage == null ? null : errorMessage.getBytes(UTF8);
+        byte[] id = callId == null ? null : callId.getBytes(UTF8);
+        ByteBuffer buffer = allocate(2 + 1 + 1 + 8 + 4 + sizeOf(message) + sizeOf(id));
+        buffer.put(VERSION).put(TYPE_STATE);
+        buffer.put((byte)processingState.ordinal());
+        buffer.put((byte)(playing ? 1 : 0));
+        buffer.putLong(updateTime);
+        buffer.putInt(errorCode == null ? NO_ERROR_CODE : errorCode);
+        putBytes(buffer, message);
+        putBytes(buffer, id);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static ByteBuffer encodeCallData(CallData callData) {
+        byte[] callId = callData.callId == null ? null : callData.callId.getBytes(UTF8);
+        byte[] callerName = callData.callerName == null ? null : callData.callerName.getBytes(UTF8);
+        byte[] description = callData.description == null ? null : callData.description.getBytes(UTF8);
+        ByteBuffer buffer = allocate(2 + sizeOf(callId) + sizeOf(callerName) + sizeOf(description));
+        buffer.put(VERSION).put(TYPE_CALL_DATA);
+        putBytes(buffer, callId);
+        putBytes(buffer, callerName);
+        putBytes(buffer, description);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        // The binary messenger requires direct buffers.
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
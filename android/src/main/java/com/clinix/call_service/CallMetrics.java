@@ -0,0 +1,95 @@
+package com.clinix.call_service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency spans along the call path. A span either measures a block directly ({@link #record}) or
+ * runs from a mark set earlier to the point where it is ended ({@link #mark}/{@link #endSpan}).
+ * Timestamps come from {@link System#nanoTime()} and nothing is allocated while recording.
+ */
+public class CallMetrics {
+    /** CallService.onCreate until the background engine is running. */
+    public static final int SPAN_ENGINE_READY = 0;
+    /** onStartCommand until startForeground. */
+    public static final int SPAN_START_TO_FOREGROUND = 1;
+    /** Time spent in enterPlayingState. */
+    public static final int SPAN_ENTER_PLAYING = 2;
+    /** startForeground until the first notification update is posted. */
+    public static final int SPAN_FOREGROUND_TO_FIRST_UPDATE = 3;
+    /** Time spent posting a notification update. */
+    public static final int SPAN_NOTIFICATION_UPDATE = 4;
+    /** Time spent handling a message on the handler channel. */
+    public static final int SPAN_HANDLER_MESSAGE = 5;
+    /** Restoring the calls from the snapshot after the service was restarted. */
+    public static final int SPAN_RESTORE_CALLS = 6;
+    /** Receipt of a hang-up or decline tap until the call is torn down natively. */
+    public static final int SPAN_TAP_TO_TEARDOWN = 7;
+    private static final String[] SPAN_NAMES = {
+            "engineReady",
+            "startToForeground",
+            "enterPlaying",
+            "foregroundToFirstUpdate",
+            "notificationUpdate",
+            "handlerMessage",
+            "restoreCalls",
+            "tapToTeardown",
+    };
+
+    public static final int MARK_SERVICE_CREATE = 0;
+    public static final int MARK_START_COMMAND = 1;
+    public static final int MARK_FOREGROUND = 2;
+    private static final int MARK_COUNT = 3;
+
+    private static final AtomicLongArray marks = new AtomicLongArray(MARK_COUNT);
+    private static final LatencyHistogram[] spans = new LatencyHistogram[SPAN_NAMES.length];
+    static {
+        for (int i = 0; i < spans.length; i++) {
+            spans[i] = new LatencyHistogram();
+        }
+    }
+
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    public static void mark(int mark) {
+        marks.set(mark, System.nanoTime());
+    }
+
+    /** Ends the span started at {@code mark}. Each mark ends at most one span. */
+    public static void endSpan(int span, int mark) {
+        long start = marks.getAndSet(mark, 0);
+        if (start != 0) {
+            spans[span].recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    public static void record(int span, long startNanos) {
+        spans[span].recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> spanMap = new HashMap<String, Object>();
+        for (int i = 0; i < spans.length; i++) {
+            spanMap.put(SPAN_NAMES[i], spans[i].toMap());
+        }
+        List<Long> bounds = new ArrayList<Long>(LatencyHistogram.BUCKET_BOUNDS_US.length);
+        for (long bound : LatencyHistogram.BUCKET_BOUNDS_US) {
+            bounds.add(bound);
+        }
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("spans", spanMap);
+        map.put("bucketBoundsUs", bounds);
+        return map;
+    }
+
+    public static void reset() {
+        for (LatencyHistogram span : spans) {
+            span.reset();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.clinix.call_service;
+
+import android.app.Notification;
+
+import androidx.core.app.NotificationCompat;
+
+/**
+ * Holds the notification builder for a single call. The static parts (channel, icons, intents,
+ * actions) are set once when the template is created; afterwards only the fields that actually
+ * changed are patched and the last built {@link Notification} is reused when nothing changed.
+ */
+public class CallNotificationTemplate {
+    private final NotificationCompat.Builder builder;
+    private Notification notification;
+    private String title;
+    private String text;
+    private boolean usesChronometer;
+
+    public CallNotificationTemplate(NotificationCompat.Builder builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * Patches the dynamic fields of the template.
+     *
+     * @return true if anything changed since the last {@link #build()}.
+     */
+    public boolean update(String title, String text, boolean useChronometer) {
+        boolean dirty = notification == null;
+        if (!equals(this.title, title)) {
+            builder.setContentTitle(title);
+            this.title = title;
+            dirty = true;
+        }
+        if (!equals(this.text, text)) {
+            builder.setContentText(text);
+            this.text = text;
+            dirty = true;
+        }
+        if (usesChronometer != useChronometer) {
+            // The chronometer counts from "when", so restart it at the moment it is switched on.
+            if (useChronometer) {
+                builder.setWhen(System.currentTimeMillis());
+            }
+            builder.setUsesChronometer(useChronometer);
+            usesChronometer = useChronometer;
+            dirty = true;
+        }
+        if (dirty) {
+            notification = null;
+        }
+        return dirty;
+    }
+
+    public Notification build() {
+        if (notification == null) {
+            notification = builder.build();
+        }
+        return notification;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
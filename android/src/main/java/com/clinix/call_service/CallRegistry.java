@@ -0,0 +1,106 @@
+package com.clinix.call_service;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The calls currently known to {@link CallService}, keyed by {@link CallData#callId}. Lookups are
+ * O(1) and safe from any thread; entries are created, updated and removed only on the call worker.
+ */
+public class CallRegistry {
+    /** Key used for state pushed before any call data, or for call data without an id. */
+    public static final String DEFAULT_CALL_ID = "";
+
+    public static class Entry {
+        public final String callId;
+        public final int notificationId;
+        public volatile CallData callData;
+        public volatile CallProcessingState processingState = CallProcessingState.idle;
+        public volatile boolean playing;
+        long stateEnteredNanos = System.nanoTime();
+        boolean notificationCreated;
+        CallNotificationTemplate notificationTemplate;
+        StateUpdateCoalescer stateCoalescer;
+        final CallStatsRecorder.CallStats stats = new CallStatsRecorder.CallStats();
+
+        Entry(String callId, int notificationId) {
+            this.callId = callId;
+            this.notificationId = notificationId;
+            stats.start(callId, stateEnteredNanos);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> calls = new ConcurrentHashMap<>();
+    private final int firstNotificationId;
+    private int nextNotificationId;
+    private volatile String activeCallId;
+
+    public CallRegistry(int firstNotificationId) {
+        this.firstNotificationId = firstNotificationId;
+        this.nextNotificationId = firstNotificationId;
+    }
+
+    public static String key(String callId) {
+        return callId == null ? DEFAULT_CALL_ID : callId;
+    }
+
+    public Entry get(String callId) {
+        return calls.get(key(callId));
+    }
+
+    public synchronized Entry getOrCreate(String callId) {
+        String key = key(callId);
+        Entry entry = calls.get(key);
+        if (entry == null) {
+            if (calls.isEmpty()) {
+                nextNotificationId = firstNotificationId;
+            }
+            entry = new Entry(key, nextNotificationId++);
+            calls.put(key, entry);
+        }
+        return entry;
+    }
+
+    public synchronized Entry remove(String callId) {
+        String key = key(callId);
+        Entry entry = calls.remove(key);
+        if (key.equals(activeCallId)) {
+            activeCallId = null;
+        }
+        return entry;
+    }
+
+    /** The most recently updated call, used when Dart does not say which call it means. */
+    public Entry getActive() {
+        String callId = activeCallId;
+        if (callId != null) {
+            Entry entry = calls.get(callId);
+            if (entry != null) return entry;
+        }
+        for (Entry entry : calls.values()) {
+            return entry;
+        }
+        return null;
+    }
+
+    public void setActive(String callId) {
+        activeCallId = key(callId);
+    }
+
+    public Collection<Entry> all() {
+        return calls.values();
+    }
+
+    public int size() {
+        return calls.size();
+    }
+
+    public boolean isEmpty() {
+        return calls.isEmpty();
+    }
+
+    public synchronized void clear() {
+        calls.clear();
+        activeCallId = null;
+    }
+}
@@ -0,0 +1,76 @@
+package com.clinix.call_service;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Resource ids used by the call notification, resolved once per configuration so the notification
+ * path never has to go through {@link android.content.res.Resources#getIdentifier}.
+ */
+public class CallResourceRegistry {
+    private static final String TAG = "CliniX:CallResources";
+    private static final String DEFAULT_RESOURCE_TYPE = "drawable";
+    private static final String APP_ICON = "app_icon";
+    private static final String STOP_ICON = "stop_icon";
+
+    private static volatile CallResourceRegistry latest;
+
+    private final CallServiceConfig config;
+    public final int appIcon;
+    public final int stopIcon;
+    public final int notificationIcon;
+
+    private CallResourceRegistry(CallServiceConfig config, int appIcon, int stopIcon, int notificationIcon) {
+        this.config = config;
+        this.appIcon = appIcon;
+        this.stopIcon = stopIcon;
+        this.notificationIcon = notificationIcon;
+    }
+
+    /**
+     * The registry for {@code config}, shared by the service and the Telecom backend. Resources are
+     * only looked up again when a new configuration is passed in.
+     */
+    public static CallResourceRegistry get(Context context, CallServiceConfig config) {
+        CallResourceRegistry registry = latest;
+        if (registry == null || registry.config != config) {
+            registry = resolve(context, config);
+            latest = registry;
+        }
+        return registry;
+    }
+
+    public static CallResourceRegistry resolve(Context context, CallServiceConfig config) {
+        Context appContext = context.getApplicationContext();
+        int launcherIcon = appContext.getApplicationInfo().icon;
+        if (launcherIcon == 0) {
+            launcherIcon = android.R.drawable.sym_def_app_icon;
+        }
+        int appIcon = lookup(appContext, APP_ICON, launcherIcon);
+        // The configured icon wins; apps that do not configure one get their app_icon drawable.
+        int notificationIcon = lookup(appContext, config.androidNotificationIcon, appIcon);
+        int stopIcon = lookup(appContext, STOP_ICON, android.R.drawable.ic_menu_close_clear_cancel);
+        return new CallResourceRegistry(config, appIcon, stopIcon, notificationIcon);
+    }
+
+    /**
+     * Looks up a resource given either as "type/name" or as a plain drawable name, returning
+     * {@code fallback} if it does not exist in the application package.
+     */
+    private static int lookup(Context context, String resource, int fallback) {
+        if (resource == null || resource.isEmpty()) return fallback;
+        String resourceType = DEFAULT_RESOURCE_TYPE;
+        String resourceName = resource;
+        int slash = resource.indexOf('/');
+        if (slash >= 0) {
+            resourceType = resource.substring(0, slash);
+            resourceName = resource.substring(slash + 1);
+        }
+        int id = context.getResources().getIdentifier(resourceName, resourceType, context.getPackageName());
+        if (id == 0) {
+            Log.w(TAG, "Resource " + resource + " not found, using fallback");
+            return fallback;
+        }
+        return id;
+    }
+}
@@ -1,7 +1,6 @@
 package com.clinix.call_service;
 
 import android.app.Activity;
-import android.app.ActivityManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -9,27 +8,36 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.BroadcastReceiver;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.SensorManager;
+import android.media.AudioDeviceCallback;
+import android.media.AudioDeviceInfo;
+import android.media.AudioManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import io.flutter.embedding.engine.FlutterEngine;
 
 @RequiresApi(api = Build.VERSION_CODES.M)
 public class CallService extends Service {
-    private static final int RING_NOTIFICATION_ID = 1068;
     private static final int NOTIFICATION_ID = 1069;
     private static final int REQUEST_CONTENT_INTENT = 1100;
     public static final String NOTIFICATION_CLICK_ACTION = "com.clinix.call_service.NOTIFICATION_CLICK";
@@ -38,57 +46,132 @@ public class CallService extends Service {
     public static final String ACTION_STOP_SERVICE = "STOP";
     public static final String ACTION_DECLINE = "DECLINE";
     public static final String ACTION_ANSWER = "ANSWER";
-    private static final int SENSOR_SENSITIVITY = 4;
+    public static final String END_REASON_HANG_UP = "hangUp";
+    public static final String END_REASON_DECLINE = "decline";
+    public static final String END_REASON_TELECOM = "telecom";
+    // Upper bounds for how long a call, or a service start without a call, may keep the device awake.
+    private static final long CALL_WAKE_LOCK_TIMEOUT_MS = 4 * 60 * 60 * 1000L;
+    private static final long START_WAKE_LOCK_TIMEOUT_MS = 30 * 1000L;
+    private static final String START_WAKE_LOCK_LEASE = "#start";
     private static PendingIntent contentIntent;
     private static ServiceListener listener;
     static CallService instance;
-    private CallData callData;
-    private PowerManager.WakeLock wakeLock;
-    private PowerManager.WakeLock pWakeLock;
-    private CallServiceConfig config;
+    private final CallRegistry calls = new CallRegistry(NOTIFICATION_ID);
+    private String foregroundCallId;
+    private WakeLockLeaseManager wakeLocks;
+    private volatile CallServiceConfig config;
+    private volatile CallResourceRegistry resources;
     private static Boolean isAvailable;
     private static Boolean isInitialized;
     private static Boolean isReachable;
     private static Boolean hasOutgoingCall;
     private static String notReachableCallUuid;
-    final Handler handler = new Handler();
+    // Call state, notifications and wake locks are handled here; see CallWorker.
+    final Handler handler = CallWorker.getHandler();
     private String ONGOING_CHANNEL= "ONGOING CHANNEL";
-    private String RINGING_CHANNEL="RINGING CHANNEL";
-    private boolean notificationCreated;
-    private CallProcessingState processingState = CallProcessingState.idle;
+    private NotificationManager notificationManager;
+    private NotificationPoster notificationPoster;
+    private CallSnapshotStore snapshots;
+    private ReachabilityProbe reachability;
+    private AudioSessionManager audioSession;
+    private ProximityScreenController proximity;
+    private AudioManager audioManager;
+    // Re-evaluate the earpiece route when a headset comes or goes, or Bluetooth audio connects.
+    private final AudioDeviceCallback audioDeviceCallback = new AudioDeviceCallback() {
+        @Override
+        public void onAudioDevicesAdded(AudioDeviceInfo[] addedDevices) {
+            updateProximity();
+        }
+
+        @Override
+        public void onAudioDevicesRemoved(AudioDeviceInfo[] removedDevices) {
+            updateProximity();
+        }
+    };
+    private final BroadcastReceiver scoReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updateProximity();
+        }
+    };
+    private final DtmfToneGenerator dtmf = new DtmfToneGenerator();
+    // Calls left by a killed process, until onStartCommand decides whether to restore them.
+    private List<CallSnapshotStore.Snapshot> pendingRestore;
+    private PendingIntent deletePendingIntent;
+    private final StateUpdateCoalescer.Counters stateUpdateCounters = new StateUpdateCoalescer.Counters();
+    private final CallStateMachine stateMachine = new CallStateMachine();
+    private final CallStatsRecorder callStats = new CallStatsRecorder();
     private static boolean playing;
     private FlutterEngine flutterEngine;
     private static Activity currentActivity;
     public static void init(ServiceListener listener) {
         CallService.listener = listener;
     }
-    private static String TAG = "CliniX:CallConnectionService";
-    /*private SensorManager sensorManager;
-    private Sensor proximity;*/
-
-    public void configure(CallServiceConfig config) {
-        this.config = config;
+    private static final String TAG = "CliniX:CallService";
+
+    public void configure(final CallServiceConfig config) {
+        CallWorker.run(new Runnable() {
+            @Override
+            public void run() {
+                CallService.this.config = config;
+                resources = CallResourceRegistry.get(CallService.this, config);
+                contentIntent = buildContentIntent(config);
+                for (CallRegistry.Entry entry : calls.all()) {
+                    if (entry.stateCoalescer != null) {
+                        entry.stateCoalescer.setWindowMs(config.stateCoalesceWindowMs);
+                    }
+                    // Templates bake in colour and icons, so rebuild them with the new config.
+                    entry.notificationTemplate = null;
+                }
+            }
+        });
     }
 
     public void stop(){
-        //sensorManager.unregisterListener(this);
-        stopForeground(true);
-        releaseWakeLock();
-        stopSelf();
+        CallWorker.run(new Runnable() {
+            @Override
+            public void run() {
+                clearCalls();
+                wakeLocks.releaseAll();
+                CallWorker.runOnMain("stopService", new Runnable() {
+                    @Override
+                    public void run() {
+                        stopForeground(true);
+                        stopSelf();
+                    }
+                });
+            }
+        });
     }
     @Override
     public void onDestroy() {
         System.out.println("### onDestroy");
         super.onDestroy();
-        listener.onDestroy();
-        listener = null;
-        /*proximity= null;
-        sensorManager=null;*/
+        if (listener != null) {
+            listener.onDestroy();
+            listener = null;
+        }
         stopForeground(true);
-        releaseWakeLock();
+        CallWorker.getStallDetector().stop();
+        reachability.shutdown();
+        dtmf.release();
+        audioManager.unregisterAudioDeviceCallback(audioDeviceCallback);
+        unregisterReceiver(scoReceiver);
+        CallWorker.run(new Runnable() {
+            @Override
+            public void run() {
+                proximity.release();
+            }
+        });
+        CallWorker.run(new Runnable() {
+            @Override
+            public void run() {
+                clearCalls();
+                wakeLocks.releaseAll();
+            }
+        });
         instance = null;
         //currentActivity=null;
-        notificationCreated = false;
     }
 
     @Nullable
@@ -100,93 +183,334 @@ public class CallService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        CallMetrics.mark(CallMetrics.MARK_SERVICE_CREATE);
         instance = this;
-        config = new CallServiceConfig(getApplicationContext());
-        if (config.activityClassName != null) {
-            Context context = getApplicationContext();
-            Intent intent = new Intent((String)null);
-            intent.setComponent(new ComponentName(context, config.activityClassName));
-            //Intent intent = new Intent(context, config.activityClassName);
-            intent.setAction(NOTIFICATION_CLICK_ACTION);
-            contentIntent = PendingIntent.getActivity(context, REQUEST_CONTENT_INTENT, intent, PendingIntent.FLAG_IMMUTABLE);
-        } else {
-            contentIntent = null;
-        }
-        notificationCreated = false;
+        ActivityPresenceTracker.register(getApplication());
+        // Reading the saved config may hit the disk, so it is loaded on the worker, ahead of any
+        // call work queued after it. Until then main-thread readers see the defaults.
+        config = CallServiceConfigStore.peek(this);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                configure(CallServiceConfigStore.get(CallService.this).getSnapshot());
+            }
+        });
+        notificationManager = (NotificationManager)getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationPoster = new NotificationPoster(handler, notificationManager);
+        snapshots = new CallSnapshotStore(new File(getNoBackupFilesDir(), CallSnapshotStore.FILE_NAME));
+        reachability = new ReachabilityProbe(handler);
+        audioManager = (AudioManager)getSystemService(Context.AUDIO_SERVICE);
+        audioSession = new AudioSessionManager(handler, audioManager,
+                new AudioSessionManager.Listener() {
+                    @Override
+                    public void onAudioSessionChanged(Map<String, Object> changes) {
+                        updateProximity();
+                        CallServicePlugin.invokeClientMethod("onAudioSessionChanged", changes);
+                    }
+                });
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                pendingRestore = snapshots.load();
+            }
+        });
         playing = false;
-        processingState = CallProcessingState.idle;
+        foregroundCallId = null;
         PowerManager pm = (PowerManager)getSystemService(Context.POWER_SERVICE);
-        wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK , CallService.class.getName());
-        pWakeLock= pm.newWakeLock(PowerManager.PROXIMITY_SCREEN_OFF_WAKE_LOCK, CallService.class.getName());
-        flutterEngine = CallServicePlugin.getFlutterEngine(this);
-        /*sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-        proximity = sensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);*/
-        System.out.println("flutterEngine warmed up");
+        wakeLocks = new WakeLockLeaseManager(handler,
+                pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK , CallService.class.getName()));
+        proximity = new ProximityScreenController(handler, (SensorManager)getSystemService(Context.SENSOR_SERVICE), pm);
+        audioManager.registerAudioDeviceCallback(audioDeviceCallback, handler);
+        registerReceiver(scoReceiver, new IntentFilter(AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED), null, handler);
+        FlutterEngineWarmer.acquire(this, new FlutterEngineWarmer.Callback() {
+            @Override
+            public void onEngineReady(FlutterEngine engine) {
+                flutterEngine = engine;
+                CallMetrics.endSpan(CallMetrics.SPAN_ENGINE_READY, CallMetrics.MARK_SERVICE_CREATE);
+                Log.d(TAG, "Flutter engine ready");
+            }
+        });
     }
 
     @Override
     public int onStartCommand(final Intent intent, int flags, int startId) {
-        if(intent.getAction()==null){
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // A null intent means the system restarted us after killing the process.
+                resolvePendingRestore(intent == null);
+            }
+        });
+        if(intent == null){
+            System.out.println("### onStartCommand: restarted");
+            return START_STICKY;
+        }else if(intent.getAction()==null){
             System.out.println("### onStartCommand");
-            acquireWakeLock();
-            //sensorManager.registerListener(this, proximity,SensorManager.SENSOR_DELAY_NORMAL);
-            return START_NOT_STICKY;
-        }else if(intent.getAction() == ACTION_STOP_SERVICE){
-            handleStop();
+            CallMetrics.mark(CallMetrics.MARK_START_COMMAND);
+            // Only a short lease: the call takes its own once it starts playing.
+            CallWorker.run(new Runnable() {
+                @Override
+                public void run() {
+                    wakeLocks.acquire(START_WAKE_LOCK_LEASE, START_WAKE_LOCK_TIMEOUT_MS);
+                }
+            });
+            return getStartMode();
+        }else if(ACTION_STOP_SERVICE.equals(intent.getAction())){
+            hangUp(intent.getStringExtra(Constants.EXTRA_CALL_UUID), END_REASON_HANG_UP);
             //stopSelf();
-        }else if(intent.getAction() == ACTION_DECLINE){
-            stop();
-            updateNotification();
+        }else if(ACTION_DECLINE.equals(intent.getAction())){
+            hangUp(intent.getStringExtra(Constants.EXTRA_CALL_UUID), END_REASON_DECLINE);
             //stopSelf();
-        }else if(intent.getAction() == ACTION_ANSWER){
+        }else if(ACTION_ANSWER.equals(intent.getAction())){
             handlePlay();
-            updateNotification();
+            updateActiveNotification();
             //stopSelf();
+        }else if(Constants.ACTION_CHECK_REACHABILITY.equals(intent.getAction())){
+            checkReachability(intent.getStringExtra(Constants.EXTRA_CALL_UUID),
+                    intent.getStringExtra(Constants.EXTRA_REACHABILITY_TARGET));
+        }else if(Constants.ACTION_AUDIO_SESSION.equals(intent.getAction())){
+            updateAudioSession(intent);
+        }else if(Constants.ACTION_DTMF_TONE.equals(intent.getAction())){
+            String digit = intent.getStringExtra(Constants.EXTRA_DTMF_DIGIT);
+            if (digit != null && digit.length() == 1) {
+                playDtmfTone(intent.getStringExtra(Constants.EXTRA_CALL_UUID), digit.charAt(0));
+            }
+        }else if(applyAudioAction(intent.getAction())
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O){
+            // Keep a Telecom connection on hold along with the audio.
+            CallConnectionService.performAction(intent.getAction(), intent.getStringExtra(Constants.EXTRA_CALL_UUID));
+        }else if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O){
+            // Call control from outside Telecom goes through the connection so both stay in sync.
+            CallConnectionService.performAction(intent.getAction(), intent.getStringExtra(Constants.EXTRA_CALL_UUID));
         }
-        return START_NOT_STICKY;
+        return getStartMode();
     }
 
-    private Notification buildNotification(boolean useChronometer) {
-        NotificationCompat.Builder builder = getNotificationBuilder()
-                .setSmallIcon(getNotificationIcon("app_icon"))
-                .setColor(config.notificationColor)
-                .setContentTitle(this.callData.description)
-                .setContentText(this.callData.callerName)
-                .setCategory(NotificationCompat.CATEGORY_CALL)
-                .setContentIntent(contentIntent)
-                .setOngoing(true);
-        if(useChronometer){
-            builder.setUsesChronometer(true);
+    /** Sticky while calls are active, so the system restarts us and we can restore them. */
+    private int getStartMode() {
+        return calls.isEmpty() ? START_NOT_STICKY : START_STICKY;
+    }
+
+    private void resolvePendingRestore(boolean restart) {
+        List<CallSnapshotStore.Snapshot> restore = pendingRestore;
+        if (restore == null) return;
+        pendingRestore = null;
+        if (restart) {
+            restoreCalls(restore);
+        } else if (calls.isEmpty()) {
+            // Started normally, so Dart is running and the old calls are stale.
+            snapshots.clear();
+        } else {
+            // Keep the snapshots of calls Dart has already set up again.
+            for (CallSnapshotStore.Snapshot snapshot : restore) {
+                if (calls.get(snapshot.callId) == null) {
+                    snapshots.remove(snapshot.callId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings back the calls of a killed process from the snapshot, posting their notifications
+     * without waiting for the engine. Dart reconciles with the onCallsRestored event.
+     */
+    private void restoreCalls(List<CallSnapshotStore.Snapshot> restore) {
+        long start = CallMetrics.now();
+        List<Object> restored = new ArrayList<Object>();
+        for (CallSnapshotStore.Snapshot snapshot : restore) {
+            if (snapshot.processingState == CallProcessingState.idle
+                    || snapshot.processingState == CallProcessingState.completed) continue;
+            CallRegistry.Entry entry = calls.getOrCreate(snapshot.callId);
+            CallData callData = new CallData();
+            callData.callId = snapshot.callId;
+            callData.callerName = snapshot.callerName;
+            callData.description = snapshot.description;
+            entry.callData = callData;
+            entry.processingState = snapshot.processingState;
+            entry.playing = snapshot.playing;
+            if (snapshot.playing) {
+                enterPlayingState(entry);
+            }
+            calls.setActive(entry.callId);
+            restored.add(snapshot.toMap());
         }
+        Log.d(TAG, "Restored " + restored.size() + " calls");
+        if (restored.isEmpty()) {
+            stop();
+            return;
+        }
+        CallMetrics.record(CallMetrics.SPAN_RESTORE_CALLS, start);
+        CallServicePlugin.queueClientEvent("onCallsRestored", CallServicePlugin.mapOf("calls", restored));
+    }
+
+    /**
+     * Starts or ends the audio session, optionally switching the speaker, as asked by an
+     * ACTION_AUDIO_SESSION intent.
+     */
+    private void updateAudioSession(final Intent intent) {
+        final boolean active = intent.getBooleanExtra(Constants.EXTRA_AUDIO_SESSION_ACTIVE, true);
+        final boolean hasSpeaker = intent.hasExtra(Constants.EXTRA_SPEAKER_ON);
+        final boolean speakerOn = intent.getBooleanExtra(Constants.EXTRA_SPEAKER_ON, false);
+        CallWorker.run(new Runnable() {
+            @Override
+            public void run() {
+                if (hasSpeaker) {
+                    audioSession.setSpeakerOn(speakerOn);
+                }
+                if (active) {
+                    audioSession.startSession();
+                } else {
+                    audioSession.endSession();
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies a mute or hold action to the audio session. Returns whether the action was one of
+     * those; repeating an action costs nothing, so Telecom callbacks can report back here too.
+     */
+    public boolean applyAudioAction(String action) {
+        final boolean muted;
+        final boolean hold;
+        if (Constants.ACTION_MUTE_CALL.equals(action) || Constants.ACTION_UNMUTE_CALL.equals(action)) {
+            muted = Constants.ACTION_MUTE_CALL.equals(action);
+            CallWorker.run(new Runnable() {
+                @Override
+                public void run() {
+                    audioSession.setMuted(muted);
+                }
+            });
+            return true;
+        } else if (Constants.ACTION_HOLD_CALL.equals(action) || Constants.ACTION_UNHOLD_CALL.equals(action)) {
+            hold = Constants.ACTION_HOLD_CALL.equals(action);
+            CallWorker.run(new Runnable() {
+                @Override
+                public void run() {
+                    audioSession.setHeld(hold);
+                }
+            });
+            return true;
+        }
+        return false;
+    }
+
+    /** Plays a key press right away; Dart is told on the side, e.g. to show the digit. */
+    public void playDtmfTone(String callId, char digit) {
+        if (!dtmf.play(digit)) return;
+        CallServicePlugin.invokeClientMethod("onCallAction", CallServicePlugin.mapOf(
+                "action", Constants.ACTION_DTMF_TONE,
+                "callId", callId,
+                "digit", String.valueOf(digit)));
+    }
+
+    /**
+     * Answers a reachability check natively. The result is kept in the static flags and sent to
+     * Dart as an onReachability event.
+     */
+    private void checkReachability(final String callId, String target) {
+        if (target == null) {
+            isAvailable = false;
+            return;
+        }
+        reachability.check(target, new ReachabilityProbe.Callback() {
+            @Override
+            public void onResult(String target, boolean reachable, boolean cached) {
+                isAvailable = true;
+                isReachable = reachable;
+                notReachableCallUuid = reachable ? null : callId;
+                CallServicePlugin.invokeClientMethod("onReachability", CallServicePlugin.mapOf(
+                        "callId", callId,
+                        "target", target,
+                        "reachable", reachable,
+                        "cached", cached));
+            }
+        });
+    }
+
+    /**
+     * Ends a call natively without waiting for Dart: its notification, wake lock lease and
+     * foreground mode go right away, and Dart is told afterwards with a queued onCallEnded event.
+     * A null callId means the active call.
+     */
+    public void hangUp(final String callId, final String reason) {
+        final long start = CallMetrics.now();
+        CallWorker.run(new Runnable() {
+            @Override
+            public void run() {
+                CallRegistry.Entry entry = callId != null ? calls.get(callId) : calls.getActive();
+                if (entry != null) {
+                    if (entry.stateCoalescer != null) {
+                        // Whatever Dart sent before the tap is superseded.
+                        entry.stateCoalescer.cancel();
+                    }
+                    endCall(entry);
+                    // Runs after the foreground changes endCall queued on the main thread.
+                    CallWorker.runOnMain("hangUpComplete", new Runnable() {
+                        @Override
+                        public void run() {
+                            CallMetrics.record(CallMetrics.SPAN_TAP_TO_TEARDOWN, start);
+                        }
+                    });
+                    CallServicePlugin.queueClientEvent("onCallEnded", CallServicePlugin.mapOf(
+                            "callId", entry.callId,
+                            "reason", reason));
+                }
+                // Let the call handler stop the call on the Dart side too.
+                CallWorker.runOnMain("handleStop", new Runnable() {
+                    @Override
+                    public void run() {
+                        handleStop();
+                    }
+                });
+            }
+        });
+    }
+
+    private Notification buildNotification(CallRegistry.Entry entry, boolean useChronometer) {
+        updateNotificationTemplate(entry, useChronometer);
+        return entry.notificationTemplate.build();
+    }
+
+    /** Returns true if the call's notification content changed. */
+    private boolean updateNotificationTemplate(CallRegistry.Entry entry, boolean useChronometer) {
+        if (entry.notificationTemplate == null) {
+            entry.notificationTemplate = new CallNotificationTemplate(getNotificationBuilder(entry));
+        }
+        CallData callData = entry.callData;
+        return entry.notificationTemplate.update(
+                callData != null ? callData.description : null,
+                callData != null ? callData.callerName : null,
+                useChronometer);
+    }
+
+    private NotificationCompat.Builder getNotificationBuilder(CallRegistry.Entry entry) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            createChannel();
+        if (deletePendingIntent == null) {
+            deletePendingIntent = buildDeletePendingIntent();
+        }
+        // One hang-up intent per call, so the tap ends the call it belongs to.
         Intent stopSelf = new Intent(this, CallService.class);
         stopSelf.setAction(ACTION_STOP_SERVICE);
-        PendingIntent pStopSelf = PendingIntent
-                .getService(this, 0, stopSelf, PendingIntent.FLAG_CANCEL_CURRENT);
-        builder.addAction(getNotificationIcon("stop_icon"),
-                "HangUp",
-                pStopSelf);
-        builder.setSubText("consult");
-        return  builder.build();
-    }
-
-    private NotificationCompat.Builder getNotificationBuilder() {
-        NotificationCompat.Builder notificationBuilder = null;
-        if (notificationBuilder == null) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
-                createChannel();
-            int iconId = getResourceId(config.androidNotificationIcon);
-            notificationBuilder = new NotificationCompat.Builder(this, ONGOING_CHANNEL)
-                    .setSmallIcon(iconId)
-                    .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-                    .setShowWhen(false)
-                    .setDeleteIntent(buildDeletePendingIntent());
-        }
-        return notificationBuilder;
+        stopSelf.putExtra(Constants.EXTRA_CALL_UUID, entry.callId);
+        PendingIntent hangUpPendingIntent = PendingIntent
+                .getService(this, entry.notificationId, stopSelf, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(this, ONGOING_CHANNEL)
+                .setSmallIcon(resources.notificationIcon)
+                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+                .setShowWhen(false)
+                .setDeleteIntent(deletePendingIntent)
+                .setColor(config.notificationColor)
+                .setCategory(NotificationCompat.CATEGORY_CALL)
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .addAction(resources.stopIcon, "HangUp", hangUpPendingIntent)
+                .setSubText("consult");
     }
 
     @RequiresApi(Build.VERSION_CODES.O)
     private void createChannel() {
-        NotificationManager notificationManager = (NotificationManager)getSystemService(Context.NOTIFICATION_SERVICE);
         NotificationChannel channel = notificationManager.getNotificationChannel(ONGOING_CHANNEL);
         if (channel == null) {
             channel = new NotificationChannel(ONGOING_CHANNEL, config.androidNotificationChannelName, NotificationManager.IMPORTANCE_LOW);
@@ -200,7 +524,7 @@ public class CallService extends Service {
     PendingIntent buildDeletePendingIntent() {
         Intent intent = new Intent(this, CallButtonReceiver.class);
         intent.setAction(CallButtonReceiver.ACTION_NOTIFICATION_DELETE);
-        return PendingIntent.getBroadcast(this, 0, intent, 0);
+        return PendingIntent.getBroadcast(this, 0, intent, PendingIntent.FLAG_IMMUTABLE);
     }
 
     public void handleDeleteNotification() {
@@ -217,67 +541,227 @@ public class CallService extends Service {
         listener.onPlay();
     }
 
-    int getResourceId(String resource) {
-        String[] parts = resource.split("/");
-        String resourceType = parts[0];
-        String resourceName = parts[1];
-        return getResources().getIdentifier(resourceName, resourceType, "Call_service");
+    void setState(final String callId, final CallProcessingState processingState, final boolean playing, final Integer errorCode, final String errorMessage) {
+        if (!CallWorker.isCurrentThread()) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    setState(callId, processingState, playing, errorCode, errorMessage);
+                }
+            });
+            return;
+        }
+        CallRegistry.Entry entry = callId != null ? calls.get(callId) : calls.getActive();
+        if (entry == null) {
+            // Nothing to tear down for a call we have never seen, or that was hung up natively.
+            if (processingState == CallProcessingState.idle || processingState == CallProcessingState.completed) return;
+            entry = calls.getOrCreate(callId);
+        }
+        getStateCoalescer(entry).submit(processingState, playing, errorCode, errorMessage);
     }
 
-    void setState(CallProcessingState processingState, boolean playing, Integer errorCode, String errorMessage) {
-        boolean wasPlaying = this.playing;
-        CallProcessingState oldProcessingState = this.processingState;
-        this.processingState = processingState;
-        this.playing = playing;
-        if (!wasPlaying && playing) {
-            enterPlayingState();
-        } else if (wasPlaying && !playing) {
-            exitPlayingState();
+    private StateUpdateCoalescer getStateCoalescer(final CallRegistry.Entry entry) {
+        if (entry.stateCoalescer == null) {
+            entry.stateCoalescer = new StateUpdateCoalescer(handler, new StateUpdateCoalescer.Sink() {
+                @Override
+                public void apply(CallProcessingState processingState, boolean playing, Integer errorCode, String errorMessage) {
+                    applyState(entry, processingState, playing, errorCode, errorMessage);
+                }
+            }, config.stateCoalesceWindowMs, stateUpdateCounters);
         }
-        if (oldProcessingState != CallProcessingState.idle && processingState == CallProcessingState.idle) {
-            // TODO: Handle completed state as well?
-            stop();
+        return entry.stateCoalescer;
+    }
+
+    private void applyState(CallRegistry.Entry entry, CallProcessingState processingState, boolean playing, Integer errorCode, String errorMessage) {
+        CallProcessingState oldProcessingState = entry.processingState;
+        int actions = stateMachine.transition(oldProcessingState, entry.playing, processingState, playing);
+        if (actions == CallStateMachine.REJECTED) {
+            // Counted by the state machine; logged for debugging.
+            Log.d(TAG, "Rejected transition " + oldProcessingState + "/" + entry.playing
+                    + " -> " + processingState + "/" + playing + " for call " + entry.callId);
+            return;
+        }
+        if (oldProcessingState != processingState) {
+            long now = CallMetrics.now();
+            stateMachine.recordPhase(oldProcessingState, now - entry.stateEnteredNanos);
+            entry.stateEnteredNanos = now;
+        }
+        entry.processingState = processingState;
+        entry.playing = playing;
+        if ((actions & CallStateMachine.ACTION_END_CALL) == 0) {
+            snapshots.put(entry);
+        }
+        if ((actions & CallStateMachine.ACTION_ENTER_PLAYING) != 0) {
+            callStats.onAnswer(entry.stats);
+            enterPlayingState(entry);
         }
-        if(oldProcessingState != CallProcessingState.ready && processingState == CallProcessingState.ready){
-            updateNotification();
+        if ((actions & CallStateMachine.ACTION_EXIT_PLAYING) != 0) {
+            exitPlayingState(entry);
+        }
+        if ((actions & CallStateMachine.ACTION_END_CALL) != 0) {
+            endCall(entry);
+            return;
+        }
+        if ((actions & CallStateMachine.ACTION_UPDATE_NOTIFICATION) != 0) {
+            callStats.onReady(entry.stats);
+            updateNotification(entry);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                CallConnectionService.onCallReady(entry.callId);
+            }
         }
         /*if(processingState == CallProcessingState.loading){
             enterRingingState();
         }*/
         //updateNotification();
     }
-    private boolean enterPlayingState() {
-        acquireWakeLock();
-        startService(new Intent(CallService.this, CallService.class));
-        startForeground(NOTIFICATION_ID, buildNotification(false));
-        notificationCreated = true;
+    private boolean enterPlayingState(CallRegistry.Entry entry) {
+        long start = CallMetrics.now();
+        wakeLocks.acquire(entry.callId, CALL_WAKE_LOCK_TIMEOUT_MS);
+        wakeLocks.releaseAll(START_WAKE_LOCK_LEASE);
+        if (foregroundCallId == null) {
+            final int notificationId = entry.notificationId;
+            final Notification notification = buildNotification(entry, false);
+            CallWorker.runOnMain("startForeground", new Runnable() {
+                @Override
+                public void run() {
+                    startService(new Intent(CallService.this, CallService.class));
+                    startForeground(notificationId, notification);
+                    CallMetrics.endSpan(CallMetrics.SPAN_START_TO_FOREGROUND, CallMetrics.MARK_START_COMMAND);
+                    CallMetrics.mark(CallMetrics.MARK_FOREGROUND);
+                }
+            });
+            notificationPoster.onPostedElsewhere(notificationId);
+            foregroundCallId = entry.callId;
+            CallWorker.getStallDetector().start();
+        } else {
+            notificationPoster.post(entry.notificationId, buildNotification(entry, false));
+        }
+        callStats.onNotificationPosted(entry.stats);
+        entry.notificationCreated = true;
+        playing = true;
+        updateProximity();
+        CallMetrics.record(CallMetrics.SPAN_ENTER_PLAYING, start);
         return true;
     }
 
-    private void exitPlayingState() {
-        stopForeground(true);
-        releaseWakeLock();
+    private void exitPlayingState(CallRegistry.Entry entry) {
+        wakeLocks.release(entry.callId);
+        if (entry.callId.equals(foregroundCallId)) {
+            releaseForeground(entry);
+        } else {
+            notificationPoster.cancel(entry.notificationId);
+        }
     }
 
-    private void updateNotification() {
-        if (!notificationCreated) return;
-        NotificationManager notificationManager = (NotificationManager)getSystemService(Context.NOTIFICATION_SERVICE);
-        notificationManager.notify(NOTIFICATION_ID, buildNotification(true));
+    private void endCall(CallRegistry.Entry entry) {
+        calls.remove(entry.callId);
+        snapshots.remove(entry.callId);
+        wakeLocks.releaseAll(entry.callId);
+        callStats.onEnd(entry.stats, wakeLocks.getHeldMs(entry.callId));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            CallConnectionService.onCallEnded(entry.callId);
+        }
+        if (calls.isEmpty()) {
+            stop();
+        } else if (entry.callId.equals(foregroundCallId)) {
+            releaseForeground(entry);
+        } else {
+            notificationPoster.cancel(entry.notificationId);
+        }
     }
 
-    /*@Override
-    public void onSensorChanged(SensorEvent event) {
-        if (event.values[0] >= -SENSOR_SENSITIVITY && event.values[0] <= SENSOR_SENSITIVITY) {
-            //near
+    /**
+     * Hands the foreground notification from {@code leaving} to another playing call, or leaves
+     * foreground mode if there is none.
+     */
+    private void releaseForeground(CallRegistry.Entry leaving) {
+        CallRegistry.Entry next = null;
+        for (CallRegistry.Entry entry : calls.all()) {
+            if (entry != leaving && entry.playing) {
+                next = entry;
+                break;
+            }
+        }
+        if (next == null) {
+            foregroundCallId = null;
+            playing = false;
+            updateProximity();
+            CallWorker.getStallDetector().stop();
+            // stopForeground removes the notification; a pending flush must not post it again.
+            notificationPoster.discard(leaving.notificationId);
+            CallWorker.runOnMain("stopForeground", new Runnable() {
+                @Override
+                public void run() {
+                    stopForeground(true);
+                }
+            });
         } else {
-            //far
+            foregroundCallId = next.callId;
+            final int notificationId = next.notificationId;
+            final Notification notification = next.notificationTemplate != null
+                    ? next.notificationTemplate.build() : buildNotification(next, false);
+            final int leavingNotificationId = leaving.notificationId;
+            notificationPoster.onPostedElsewhere(notificationId);
+            notificationPoster.discard(leavingNotificationId);
+            callStats.onNotificationPosted(next.stats);
+            CallWorker.runOnMain("startForeground", new Runnable() {
+                @Override
+                public void run() {
+                    startForeground(notificationId, notification);
+                    // Cancel only once the new notification is foreground, so the service never
+                    // runs in the foreground without one.
+                    notificationManager.cancel(leavingNotificationId);
+                }
+            });
         }
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    private void updateActiveNotification() {
+        CallWorker.run(new Runnable() {
+            @Override
+            public void run() {
+                updateNotification(calls.getActive());
+            }
+        });
+    }
+
+    private void updateNotification(CallRegistry.Entry entry) {
+        if (entry == null || !entry.notificationCreated) return;
+        long start = CallMetrics.now();
+        if (!updateNotificationTemplate(entry, true)) return;
+        notificationPoster.post(entry.notificationId, entry.notificationTemplate.build());
+        callStats.onNotificationPosted(entry.stats);
+        CallMetrics.endSpan(CallMetrics.SPAN_FOREGROUND_TO_FIRST_UPDATE, CallMetrics.MARK_FOREGROUND);
+        CallMetrics.record(CallMetrics.SPAN_NOTIFICATION_UPDATE, start);
+    }
+
+    private void clearCalls() {
+        for (CallRegistry.Entry entry : calls.all()) {
+            if (entry.stateCoalescer != null) {
+                entry.stateCoalescer.cancel();
+            }
+            if (entry.notificationCreated) {
+                notificationPoster.cancel(entry.notificationId);
+            }
+            callStats.onEnd(entry.stats, wakeLocks.getHeldMs(entry.callId));
+        }
+        notificationPoster.clear();
+        snapshots.clear();
+        audioSession.endSession();
+        calls.clear();
+        foregroundCallId = null;
+        playing = false;
+        updateProximity();
+        CallWorker.getStallDetector().stop();
+    }
 
-    }*/
+    /**
+     * Listens to the proximity sensor while a call plays through the earpiece. Called when a call
+     * starts or stops playing, the speaker is switched, or audio devices change.
+     */
+    private void updateProximity() {
+        proximity.setEarpieceRoute(playing && audioSession.isEarpieceRoute());
+    }
 
     public static interface ServiceListener {
         void onClick(MediaControl mediaControl);
@@ -299,31 +783,89 @@ public class CallService extends Service {
         void onDestroy();
     }
 
-    private void acquireWakeLock() {
-        if (!wakeLock.isHeld()){
-            wakeLock.acquire();
-        }
-        if(!pWakeLock.isHeld()){
-            pWakeLock.acquire();;
+    public void setCallData(final CallData callData){
+        // On the worker like setState, so a state update for the active call always sees the call
+        // data sent before it.
+        if (!CallWorker.isCurrentThread()) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    setCallData(callData);
+                }
+            });
+            return;
         }
+        CallRegistry.Entry entry = calls.getOrCreate(callData.callId);
+        entry.callData = callData;
+        calls.setActive(entry.callId);
+        snapshots.put(entry);
+    }
+
+    public CallRegistry getCalls() {
+        return calls;
     }
 
-    private void releaseWakeLock() {
-        if (wakeLock.isHeld()){
-            wakeLock.release();
+    /** Notification resources resolved for the current configuration. */
+    public CallResourceRegistry getCallResources() {
+        return resources;
+    }
+
+    /**
+     * Stats of one call, active or recently ended, or of all of them with the aggregate histograms
+     * if {@code callId} is null.
+     */
+    public Map<String, Object> getCallStats(String callId) {
+        if (callId != null) {
+            CallRegistry.Entry entry = calls.get(callId);
+            return entry != null ? entry.stats.toMap() : callStats.getRecent(callId);
         }
-        if(pWakeLock.isHeld()){
-            pWakeLock.release(1);
+        List<Object> active = new ArrayList<Object>();
+        for (CallRegistry.Entry entry : calls.all()) {
+            Map<String, Object> stats = entry.stats.toMap();
+            if (stats != null) {
+                active.add(stats);
+            }
         }
+        Map<String, Object> map = callStats.toMap();
+        map.put("active", active);
+        map.put("recent", callStats.getRecent());
+        return map;
+    }
+
+    public StateUpdateCoalescer.Counters getStateUpdateCounters() {
+        return stateUpdateCounters;
+    }
+
+    public CallStateMachine getStateMachine() {
+        return stateMachine;
     }
 
-    public void setCallData(CallData callData){
-        this.callData= callData;
+    public CallSnapshotStore getSnapshots() {
+        return snapshots;
     }
 
-    private int getNotificationIcon(String iconName) {
-        int resourceId = getApplicationContext().getResources().getIdentifier(iconName, "drawable", getApplicationContext().getPackageName());
-        return resourceId;
+    public ProximityScreenController getProximity() {
+        return proximity;
+    }
+
+    public AudioSessionManager getAudioSession() {
+        return audioSession;
+    }
+
+    public DtmfToneGenerator getDtmf() {
+        return dtmf;
+    }
+
+    public ReachabilityProbe getReachability() {
+        return reachability;
+    }
+
+    public NotificationPoster getNotificationPoster() {
+        return notificationPoster;
+    }
+
+    public WakeLockLeaseManager getWakeLocks() {
+        return wakeLocks;
     }
 
     private HashMap<String, String> bundleToMap(Bundle extras) {
@@ -339,13 +881,16 @@ public class CallService extends Service {
         }
         return extrasMap;
     }
-    public boolean isActivityRunning() {
-        ActivityManager activityManager = (ActivityManager) getApplicationContext().getSystemService(Context.ACTIVITY_SERVICE);
-        List<ActivityManager.RunningTaskInfo> tasks = activityManager.getRunningTasks(Integer.MAX_VALUE);
-        for (ActivityManager.RunningTaskInfo task : tasks) {
-            if (config.activityClassName.equalsIgnoreCase(task.baseActivity.getClassName()))
-                return true;
-        }
-        return false;
+    private PendingIntent buildContentIntent(CallServiceConfig config) {
+        if (config.activityClassName == null) return null;
+        Context context = getApplicationContext();
+        Intent intent = new Intent((String)null);
+        intent.setComponent(new ComponentName(context, config.activityClassName));
+        intent.setAction(NOTIFICATION_CLICK_ACTION);
+        return PendingIntent.getActivity(context, REQUEST_CONTENT_INTENT, intent, PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    public boolean isActivityForeground() {
+        return ActivityPresenceTracker.isCallUiForeground(config.activityClassName);
     }
 }
@@ -4,6 +4,8 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.Iterator;
@@ -24,80 +26,222 @@ public class CallServiceConfig {
     private static final String KEY_ART_DOWNSCALE_HEIGHT = "artDownscaleHeight";
     private static final String KEY_ACTIVITY_CLASS_NAME = "activityClassName";
     private static final String KEY_BROWSABLE_ROOT_EXTRAS = "browsableRootExtras";
+    private static final String KEY_STATE_COALESCE_WINDOW_MS = "stateCoalesceWindowMs";
+    public static final int DEFAULT_STATE_COALESCE_WINDOW_MS = 50;
+    private static final String EXTRA_TYPE_INT = "i";
+    private static final String EXTRA_TYPE_LONG = "l";
+    private static final String EXTRA_TYPE_DOUBLE = "d";
+    private static final String EXTRA_TYPE_BOOLEAN = "b";
+    private static final String EXTRA_TYPE_STRING = "s";
 
-    private SharedPreferences preferences;
-    public boolean androidResumeOnClick;
-    public String androidNotificationChannelName;
-    public String androidNotificationChannelDescription;
-    public int notificationColor;
-    public String androidNotificationIcon;
-    public boolean androidShowNotificationBadge;
-    public boolean androidNotificationClickStartsActivity;
-    public boolean androidNotificationOngoing;
-    public boolean androidStopForegroundOnPause;
-    public int artDownscaleWidth;
-    public int artDownscaleHeight;
-    public String activityClassName;
-    public String browsableRootExtras;
+    /** The configuration of an app that has not saved one, served until the saved one is loaded. */
+    public static final CallServiceConfig DEFAULTS = new CallServiceConfig(new Editor((SharedPreferences)null));
+
+    private final SharedPreferences preferences;
+    public final boolean androidResumeOnClick;
+    public final String androidNotificationChannelName;
+    public final String androidNotificationChannelDescription;
+    public final int notificationColor;
+    public final String androidNotificationIcon;
+    public final boolean androidShowNotificationBadge;
+    public final boolean androidNotificationClickStartsActivity;
+    public final boolean androidNotificationOngoing;
+    public final boolean androidStopForegroundOnPause;
+    public final int artDownscaleWidth;
+    public final int artDownscaleHeight;
+    public final String activityClassName;
+    public final String browsableRootExtras;
+    public final int stateCoalesceWindowMs;
+    // Parsed from browsableRootExtras on first read.
+    private volatile Bundle browsableRootExtrasBundle;
+
+    /**
+     * A mutable copy of a configuration. Snapshots are shared between threads once published, so
+     * changes are made here and turned into a new snapshot with {@link #build}.
+     */
+    public static class Editor {
+        private final SharedPreferences preferences;
+        public boolean androidResumeOnClick = true;
+        public String androidNotificationChannelName;
+        public String androidNotificationChannelDescription;
+        public int notificationColor = -1;
+        public String androidNotificationIcon = "mipmap/ic_launcher";
+        public boolean androidShowNotificationBadge;
+        public boolean androidNotificationClickStartsActivity = true;
+        public boolean androidNotificationOngoing;
+        public boolean androidStopForegroundOnPause = true;
+        public int artDownscaleWidth = -1;
+        public int artDownscaleHeight = -1;
+        public String activityClassName;
+        public String browsableRootExtras;
+        public int stateCoalesceWindowMs = DEFAULT_STATE_COALESCE_WINDOW_MS;
+        private Bundle browsableRootExtrasBundle;
+
+        private Editor(SharedPreferences preferences) {
+            this.preferences = preferences;
+        }
+
+        private Editor(CallServiceConfig other) {
+            preferences = other.preferences;
+            androidResumeOnClick = other.androidResumeOnClick;
+            androidNotificationChannelName = other.androidNotificationChannelName;
+            androidNotificationChannelDescription = other.androidNotificationChannelDescription;
+            notificationColor = other.notificationColor;
+            androidNotificationIcon = other.androidNotificationIcon;
+            androidShowNotificationBadge = other.androidShowNotificationBadge;
+            androidNotificationClickStartsActivity = other.androidNotificationClickStartsActivity;
+            androidNotificationOngoing = other.androidNotificationOngoing;
+            androidStopForegroundOnPause = other.androidStopForegroundOnPause;
+            artDownscaleWidth = other.artDownscaleWidth;
+            artDownscaleHeight = other.artDownscaleHeight;
+            activityClassName = other.activityClassName;
+            browsableRootExtras = other.browsableRootExtras;
+            stateCoalesceWindowMs = other.stateCoalesceWindowMs;
+            browsableRootExtrasBundle = other.browsableRootExtrasBundle;
+        }
+
+        /**
+         * Stores the extras as a JSON object mapping each key to a {@code [type, value]} pair, so
+         * reading them back needs no guessing of the value type.
+         */
+        public void setBrowsableRootExtras(Map<?,?> map) {
+            browsableRootExtrasBundle = null;
+            browsableRootExtras = map == null ? null : encodeBrowsableRootExtras(map);
+        }
+
+        public CallServiceConfig build() {
+            return new CallServiceConfig(this);
+        }
+    }
 
     public CallServiceConfig(Context context) {
         preferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
-        androidResumeOnClick = preferences.getBoolean(KEY_ANDROID_RESUME_ON_CLICK, true);
-        androidNotificationChannelName = preferences.getString(KEY_ANDROID_NOTIFICATION_CHANNEL_NAME, null);
-        androidNotificationChannelDescription = preferences.getString(KEY_ANDROID_NOTIFICATION_CHANNEL_DESCRIPTION, null);
-        notificationColor = preferences.getInt(KEY_NOTIFICATION_COLOR, -1);
-        androidNotificationIcon = preferences.getString(KEY_ANDROID_NOTIFICATION_ICON, "mipmap/ic_launcher");
-        androidShowNotificationBadge = preferences.getBoolean(KEY_ANDROID_SHOW_NOTIFICATION_BADGE, false);
-        androidNotificationClickStartsActivity = preferences.getBoolean(KEY_ANDROID_NOTIFICATION_CLICK_STARTS_ACTIVITY, true);
-        androidNotificationOngoing = preferences.getBoolean(KEY_ANDROID_NOTIFICATION_ONGOING, false);
-        androidStopForegroundOnPause = preferences.getBoolean(KEY_ANDROID_STOP_FOREGROUND_ON_PAUSE, true);
-        artDownscaleWidth = preferences.getInt(KEY_ART_DOWNSCALE_WIDTH, -1);
-        artDownscaleHeight = preferences.getInt(KEY_ART_DOWNSCALE_HEIGHT, -1);
-        activityClassName = preferences.getString(KEY_ACTIVITY_CLASS_NAME, null);
-        browsableRootExtras = preferences.getString(KEY_BROWSABLE_ROOT_EXTRAS, null);
+        androidResumeOnClick = preferences.getBoolean(KEY_ANDROID_RESUME_ON_CLICK, DEFAULTS.androidResumeOnClick);
+        androidNotificationChannelName = preferences.getString(KEY_ANDROID_NOTIFICATION_CHANNEL_NAME, DEFAULTS.androidNotificationChannelName);
+        androidNotificationChannelDescription = preferences.getString(KEY_ANDROID_NOTIFICATION_CHANNEL_DESCRIPTION, DEFAULTS.androidNotificationChannelDescription);
+        notificationColor = preferences.getInt(KEY_NOTIFICATION_COLOR, DEFAULTS.notificationColor);
+        androidNotificationIcon = preferences.getString(KEY_ANDROID_NOTIFICATION_ICON, DEFAULTS.androidNotificationIcon);
+        androidShowNotificationBadge = preferences.getBoolean(KEY_ANDROID_SHOW_NOTIFICATION_BADGE, DEFAULTS.androidShowNotificationBadge);
+        androidNotificationClickStartsActivity = preferences.getBoolean(KEY_ANDROID_NOTIFICATION_CLICK_STARTS_ACTIVITY, DEFAULTS.androidNotificationClickStartsActivity);
+        androidNotificationOngoing = preferences.getBoolean(KEY_ANDROID_NOTIFICATION_ONGOING, DEFAULTS.androidNotificationOngoing);
+        androidStopForegroundOnPause = preferences.getBoolean(KEY_ANDROID_STOP_FOREGROUND_ON_PAUSE, DEFAULTS.androidStopForegroundOnPause);
+        artDownscaleWidth = preferences.getInt(KEY_ART_DOWNSCALE_WIDTH, DEFAULTS.artDownscaleWidth);
+        artDownscaleHeight = preferences.getInt(KEY_ART_DOWNSCALE_HEIGHT, DEFAULTS.artDownscaleHeight);
+        activityClassName = preferences.getString(KEY_ACTIVITY_CLASS_NAME, DEFAULTS.activityClassName);
+        browsableRootExtras = preferences.getString(KEY_BROWSABLE_ROOT_EXTRAS, DEFAULTS.browsableRootExtras);
+        stateCoalesceWindowMs = preferences.getInt(KEY_STATE_COALESCE_WINDOW_MS, DEFAULTS.stateCoalesceWindowMs);
     }
 
-    public void setBrowsableRootExtras(Map<?,?> map) {
-        if (map != null) {
-            JSONObject json = new JSONObject(map);
-            browsableRootExtras = json.toString();
-        } else {
-            browsableRootExtras = null;
+    private CallServiceConfig(Editor editor) {
+        preferences = editor.preferences;
+        androidResumeOnClick = editor.androidResumeOnClick;
+        androidNotificationChannelName = editor.androidNotificationChannelName;
+        androidNotificationChannelDescription = editor.androidNotificationChannelDescription;
+        notificationColor = editor.notificationColor;
+        androidNotificationIcon = editor.androidNotificationIcon;
+        androidShowNotificationBadge = editor.androidShowNotificationBadge;
+        androidNotificationClickStartsActivity = editor.androidNotificationClickStartsActivity;
+        androidNotificationOngoing = editor.androidNotificationOngoing;
+        androidStopForegroundOnPause = editor.androidStopForegroundOnPause;
+        artDownscaleWidth = editor.artDownscaleWidth;
+        artDownscaleHeight = editor.artDownscaleHeight;
+        activityClassName = editor.activityClassName;
+        browsableRootExtras = editor.browsableRootExtras;
+        stateCoalesceWindowMs = editor.stateCoalesceWindowMs;
+        browsableRootExtrasBundle = editor.browsableRootExtrasBundle;
+    }
+
+    /** Returns a mutable copy of this configuration. */
+    public Editor edit() {
+        return new Editor(this);
+    }
+
+    private static String encodeBrowsableRootExtras(Map<?,?> map) {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<?,?> entry : map.entrySet()) {
+            String type = extraType(entry.getValue());
+            if (type == null) {
+                System.out.println("Unsupported extras value for key " + entry.getKey());
+                continue;
+            }
+            JSONArray typed = new JSONArray();
+            typed.put(type);
+            typed.put(entry.getValue());
+            try {
+                json.put((String)entry.getKey(), typed);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
         }
+        return json.toString();
     }
 
+    /** Returns a copy of the extras, which are only parsed the first time they are read. */
     public Bundle getBrowsableRootExtras() {
         if (browsableRootExtras == null) return null;
+        Bundle extras = browsableRootExtrasBundle;
+        if (extras == null) {
+            extras = parseBrowsableRootExtras(browsableRootExtras);
+            if (extras == null) return null;
+            browsableRootExtrasBundle = extras;
+        }
+        return new Bundle(extras);
+    }
+
+    private static Bundle parseBrowsableRootExtras(String encoded) {
         try {
-            JSONObject json = new JSONObject(browsableRootExtras);
+            JSONObject json = new JSONObject(encoded);
             Bundle extras = new Bundle();
             for (Iterator<String> it = json.keys(); it.hasNext();) {
                 String key = it.next();
-                try {
-                    extras.putInt(key, json.getInt(key));
-                } catch (Exception e1) {
-                    try {
-                        extras.putBoolean(key, json.getBoolean(key));
-                    } catch (Exception e2) {
-                        try {
-                            extras.putDouble(key, json.getDouble(key));
-                        } catch (Exception e3) {
-                            try {
-                                extras.putString(key, json.getString(key));
-                            } catch (Exception e4) {
-                                System.out.println("Unsupported extras value for key " + key);
-                            }
-                        }
-                    }
+                Object value = json.get(key);
+                String type;
+                if (value instanceof JSONArray && ((JSONArray)value).length() == 2) {
+                    JSONArray typed = (JSONArray)value;
+                    type = typed.getString(0);
+                    value = typed.get(1);
+                } else {
+                    // Untyped value saved by an older version.
+                    type = extraType(value);
                 }
+                putExtra(extras, key, type, value);
             }
             return extras;
-        } catch (Exception e) {
+        } catch (JSONException e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    private static String extraType(Object value) {
+        if (value instanceof Integer) return EXTRA_TYPE_INT;
+        if (value instanceof Long) return EXTRA_TYPE_LONG;
+        if (value instanceof Double || value instanceof Float) return EXTRA_TYPE_DOUBLE;
+        if (value instanceof Boolean) return EXTRA_TYPE_BOOLEAN;
+        if (value instanceof String) return EXTRA_TYPE_STRING;
+        return null;
+    }
+
+    private static void putExtra(Bundle extras, String key, String type, Object value) {
+        if (EXTRA_TYPE_INT.equals(type) && value instanceof Number) {
+            extras.putInt(key, ((Number)value).intValue());
+        } else if (EXTRA_TYPE_LONG.equals(type) && value instanceof Number) {
+            extras.putLong(key, ((Number)value).longValue());
+        } else if (EXTRA_TYPE_DOUBLE.equals(type) && value instanceof Number) {
+            extras.putDouble(key, ((Number)value).doubleValue());
+        } else if (EXTRA_TYPE_BOOLEAN.equals(type) && value instanceof Boolean) {
+            extras.putBoolean(key, (Boolean)value);
+        } else if (EXTRA_TYPE_STRING.equals(type) && value instanceof String) {
+            extras.putString(key, (String)value);
+        } else {
+            System.out.println("Unsupported extras value for key " + key);
+        }
+    }
+
+    /**
+     * Writes every key synchronously, so it should not be called on the main thread. The
+     * {@link #DEFAULTS} have nowhere to be saved.
+     */
     public void save() {
         preferences.edit()
                 .putBoolean(KEY_ANDROID_RESUME_ON_CLICK, androidResumeOnClick)
@@ -113,6 +257,7 @@ public class CallServiceConfig {
                 .putInt(KEY_ART_DOWNSCALE_HEIGHT, artDownscaleHeight)
                 .putString(KEY_ACTIVITY_CLASS_NAME, activityClassName)
                 .putString(KEY_BROWSABLE_ROOT_EXTRAS, browsableRootExtras)
+                .putInt(KEY_STATE_COALESCE_WINDOW_MS, stateCoalesceWindowMs)
                 .commit();
     }
 }
@@ -0,0 +1,88 @@
+package com.clinix.call_service;
+
+import android.content.Context;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process-wide holder of the current {@link CallServiceConfig}. Readers get the in-memory snapshot
+ * without touching SharedPreferences; {@link #publish} swaps the snapshot and persists it on the
+ * {@link CallWorker} thread, writing only the latest snapshot when several are published in a row.
+ *
+ * <p>The first {@link #get} reads SharedPreferences, so the main thread uses {@link #peek}, which
+ * serves the defaults until the worker has loaded the store. Snapshots are immutable; changes go
+ * through {@link #edit}.
+ */
+public class CallServiceConfigStore {
+    private static volatile CallServiceConfigStore instance;
+
+    private final AtomicBoolean writeQueued = new AtomicBoolean();
+    private volatile CallServiceConfig snapshot;
+
+    private CallServiceConfigStore(CallServiceConfig snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Returns the store, reading SharedPreferences on the calling thread the first time. Not for
+     * the main thread; see {@link #peek}.
+     */
+    public static CallServiceConfigStore get(Context context) {
+        CallServiceConfigStore store = instance;
+        if (store == null) {
+            synchronized (CallServiceConfigStore.class) {
+                store = instance;
+                if (store == null) {
+                    store = new CallServiceConfigStore(new CallServiceConfig(context.getApplicationContext()));
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /** Loads the store in the background so later calls to {@link #get} do not read from disk. */
+    public static void preload(Context context) {
+        final Context appContext = context.getApplicationContext();
+        CallWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                get(appContext);
+            }
+        });
+    }
+
+    /**
+     * The current snapshot if the store is loaded, otherwise {@link CallServiceConfig#DEFAULTS}
+     * while it is loaded on the worker. Never reads from disk.
+     */
+    public static CallServiceConfig peek(Context context) {
+        CallServiceConfigStore store = instance;
+        if (store != null) return store.snapshot;
+        preload(context);
+        return CallServiceConfig.DEFAULTS;
+    }
+
+    public CallServiceConfig getSnapshot() {
+        return snapshot;
+    }
+
+    /** Returns a mutable copy of the current snapshot. */
+    public CallServiceConfig.Editor edit() {
+        return snapshot.edit();
+    }
+
+    public void publish(CallServiceConfig config) {
+        snapshot = config;
+        if (writeQueued.compareAndSet(false, true)) {
+            CallWorker.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Clear the flag first so a snapshot published during the write gets its own.
+                    writeQueued.set(false);
+                    snapshot.save();
+                }
+            });
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.clinix.call_service;
 
 import android.app.Activity;
+import android.app.Application;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -8,18 +9,21 @@ import android.content.ServiceConnection;
 import android.content.pm.ApplicationInfo;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
-import android.os.SystemClock;
+import android.os.Looper;
 import android.telecom.PhoneAccountHandle;
 import android.telecom.TelecomManager;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import io.flutter.embedding.engine.FlutterEngine;
 import io.flutter.embedding.engine.FlutterEngineCache;
@@ -27,6 +31,8 @@ import io.flutter.embedding.engine.dart.DartExecutor;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
@@ -41,12 +47,8 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
   /// This local reference serves to register the plugin with the Flutter Engine and unregister it
   /// when the Flutter Engine is detached from the Activity
   private MethodChannel channel;
-  private static long bootTime;
   private boolean isReceiverRegistered = false;
-  private static String flutterEngineId = "call_service_engine";
-  static {
-    bootTime = System.currentTimeMillis() - SystemClock.elapsedRealtime();
-  }
+  static String flutterEngineId = "call_service_engine";
 
   public static synchronized FlutterEngine getFlutterEngine(Context context) {
     FlutterEngine flutterEngine = FlutterEngineCache.getInstance().get(flutterEngineId);
@@ -63,6 +65,14 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
     return flutterEngine;
   }
 
+  /**
+   * Pre-creates the engine that hosts the call handler so an incoming call on a cold process does
+   * not pay for the engine boot. Typically called from {@code Application.onCreate}.
+   */
+  public static void warmUpFlutterEngine(Context context, boolean whenIdle) {
+    FlutterEngineWarmer.warmUp(context, whenIdle);
+  }
+
   public static void disposeFlutterEngine() {
     FlutterEngine flutterEngine = FlutterEngineCache.getInstance().get(flutterEngineId);
     if (flutterEngine != null) {
@@ -74,9 +84,19 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
 
   private static final String CHANNEL_CLIENT = "com.clinix.call_service.client.methods";
   private static final String CHANNEL_HANDLER = "com.clinix.call_service.handler.methods";
+  private static final String CHANNEL_HANDLER_BINARY = "com.clinix.call_service.handler.binary";
   private static Context applicationContext;
-  private static Set<ClientInterface> clientInterfaces = new HashSet<ClientInterface>();
+  private static final int CLIENT_QUEUE_CAPACITY = 64;
+  private static final ClientBroadcaster<ClientInterface> clientInterfaces = new ClientBroadcaster<ClientInterface>(
+          new Handler(Looper.getMainLooper()), CLIENT_QUEUE_CAPACITY, ClientBroadcaster.OverflowPolicy.COALESCE_BY_METHOD);
+  static {
+    clientInterfaces.setCoalescedMethods("onAudioSessionChanged");
+  }
   private static ClientInterface mainClientInterface;
+  private static final int MAX_QUEUED_EVENTS = 32;
+  private static final ArrayDeque<Object[]> queuedEvents = new ArrayDeque<Object[]>();
+  // Whether a client has sent "configure" since the last one detached.
+  private static boolean clientConfigured;
   private static CallHandlerInterface callHandlerInterface;
 
 
@@ -107,6 +127,12 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
     if (applicationContext == null) {
       applicationContext = flutterPluginBinding.getApplicationContext();
     }
+    CallServiceConfigStore.preload(applicationContext);
+    if (applicationContext instanceof Application) {
+      ActivityPresenceTracker.register((Application)applicationContext);
+    }
+    // The self-managed phone account is registered by the first reportIncomingCall or placeCall,
+    // so apps that never use Telecom calls do not get one.
     if (callHandlerInterface == null) {
       // We don't know yet whether this is the right engine that hosts the BackgroundCallTask,
       // but we need to register a MethodCallHandler now just in case. If we're wrong, we
@@ -124,10 +150,16 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
   public void onDetachedFromEngine(FlutterPluginBinding binding) {
     System.out.println("### onDetachedFromEngine");
     System.out.println("### " + clientInterfaces.size() + " client handlers");
-    if (clientInterfaces.size() == 1) {
-      disconnect(clientInterfaces.iterator().next().activity);
+    List<ClientInterface> clients = clientInterfaces.getClients();
+    if (clients.size() == 1) {
+      disconnect(clients.get(0).activity);
     }
     clientInterfaces.remove(clientInterface);
+    if (clientInterfaces.size() == 0) {
+      synchronized (queuedEvents) {
+        clientConfigured = false;
+      }
+    }
     clientInterface.setContext(null);
     flutterPluginBinding = null;
     clientInterface = null;
@@ -138,9 +170,33 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
     System.out.println("### onDetachedFromEngine completed");
   }
 
-  private static void invokeClientMethod(String method, Object arg) {
-    for (ClientInterface clientInterface : clientInterfaces) {
-      clientInterface.channel.invokeMethod(method, arg);
+  static void invokeClientMethod(String method, Object arg) {
+    clientInterfaces.broadcast(method, arg);
+  }
+
+  /**
+   * Sends an event Dart must not miss, such as a call ended natively. If no client has configured
+   * the plugin yet, e.g. while the engine is still starting, the event is held until one does.
+   */
+  static void queueClientEvent(String method, Object arg) {
+    synchronized (queuedEvents) {
+      if (!clientConfigured) {
+        if (queuedEvents.size() >= MAX_QUEUED_EVENTS) {
+          queuedEvents.pollFirst();
+        }
+        queuedEvents.addLast(new Object[] {method, arg});
+        return;
+      }
+    }
+    invokeClientMethod(method, arg);
+  }
+
+  private static void flushQueuedEvents() {
+    synchronized (queuedEvents) {
+      clientConfigured = true;
+      for (Object[] event; (event = queuedEvents.pollFirst()) != null;) {
+        invokeClientMethod((String)event[0], event[1]);
+      }
     }
   }
 
@@ -150,6 +206,7 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
   public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
     System.out.println("### mainClientInterface set");
     activityPluginBinding = binding;
+    ActivityPresenceTracker.seed(binding.getActivity());
     clientInterface.setActivity(binding.getActivity());
     clientInterface.setContext(binding.getActivity());
     mainClientInterface = clientInterface;
@@ -249,7 +306,7 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
   }
 
 
-  private static class ClientInterface implements MethodCallHandler {
+  private static class ClientInterface implements MethodCallHandler, ClientBroadcaster.Client {
     private Context context;
     protected Activity activity;
     public final BinaryMessenger messenger;
@@ -266,6 +323,11 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
     private void setActivity(Activity activity) {
       this.activity = activity;
     }
+
+    @Override
+    public void invokeMethod(String method, Object arg) {
+      channel.invokeMethod(method, arg);
+    }
     @RequiresApi(api = Build.VERSION_CODES.M)
     @Override
     public void onMethodCall(@NonNull MethodCall call, @NonNull Result result) {
@@ -274,27 +336,38 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
         switch (call.method) {
           case "configure":
             Map<?, ?> args = (Map<?, ?>)call.arguments;
-            Map<?, ?> configMap = (Map<?, ?>)args.get("config");
-            CallServiceConfig config = new CallServiceConfig(context.getApplicationContext());
-            config.androidNotificationClickStartsActivity = (Boolean)configMap.get("androidNotificationClickStartsActivity");
-            config.androidNotificationOngoing = (Boolean)configMap.get("androidNotificationOngoing");
-            config.androidResumeOnClick = (Boolean)configMap.get("androidResumeOnClick");
-            config.androidNotificationChannelName = (String)configMap.get("androidNotificationChannelName");
-            config.androidNotificationChannelDescription = (String)configMap.get("androidNotificationChannelDescription");
-            config.notificationColor = configMap.get("notificationColor") == null ? -1 : getInt(configMap.get("notificationColor"));
-            config.androidNotificationIcon = (String)configMap.get("androidNotificationIcon");
-            config.androidShowNotificationBadge = (Boolean)configMap.get("androidShowNotificationBadge");
-            config.androidStopForegroundOnPause = (Boolean)configMap.get("androidStopForegroundOnPause");
-            config.artDownscaleWidth = configMap.get("artDownscaleWidth") != null ? (Integer)configMap.get("artDownscaleWidth") : -1;
-            config.artDownscaleHeight = configMap.get("artDownscaleHeight") != null ? (Integer)configMap.get("artDownscaleHeight") : -1;
-            config.setBrowsableRootExtras((Map<?,?>)configMap.get("androidBrowsableRootExtras"));
-            if (activity != null) {
-              config.activityClassName = activity.getClass().getName();
-            }
-            config.save();
-            if (CallService.instance != null) {
-              CallService.instance.configure(config);
-            }
+            final Map<?, ?> configMap = (Map<?, ?>)args.get("config");
+            final Context configContext = context;
+            final String activityClassName = activity != null ? activity.getClass().getName() : null;
+            // The first read of the saved config may hit the disk, so edit it on the worker.
+            CallWorker.post(new Runnable() {
+              @Override
+              public void run() {
+                CallServiceConfigStore configStore = CallServiceConfigStore.get(configContext);
+                CallServiceConfig.Editor config = configStore.edit();
+                config.androidNotificationClickStartsActivity = (Boolean)configMap.get("androidNotificationClickStartsActivity");
+                config.androidNotificationOngoing = (Boolean)configMap.get("androidNotificationOngoing");
+                config.androidResumeOnClick = (Boolean)configMap.get("androidResumeOnClick");
+                config.androidNotificationChannelName = (String)configMap.get("androidNotificationChannelName");
+                config.androidNotificationChannelDescription = (String)configMap.get("androidNotificationChannelDescription");
+                config.notificationColor = configMap.get("notificationColor") == null ? -1 : getInt(configMap.get("notificationColor"));
+                config.androidNotificationIcon = (String)configMap.get("androidNotificationIcon");
+                config.androidShowNotificationBadge = (Boolean)configMap.get("androidShowNotificationBadge");
+                config.androidStopForegroundOnPause = (Boolean)configMap.get("androidStopForegroundOnPause");
+                config.artDownscaleWidth = configMap.get("artDownscaleWidth") != null ? (Integer)configMap.get("artDownscaleWidth") : -1;
+                config.artDownscaleHeight = configMap.get("artDownscaleHeight") != null ? (Integer)configMap.get("artDownscaleHeight") : -1;
+                config.setBrowsableRootExtras((Map<?,?>)configMap.get("androidBrowsableRootExtras"));
+                config.stateCoalesceWindowMs = configMap.get("stateCoalesceWindowMs") != null ? getInt(configMap.get("stateCoalesceWindowMs")) : CallServiceConfig.DEFAULT_STATE_COALESCE_WINDOW_MS;
+                if (activityClassName != null) {
+                  config.activityClassName = activityClassName;
+                }
+                CallServiceConfig snapshot = config.build();
+                configStore.publish(snapshot);
+                if (CallService.instance != null) {
+                  CallService.instance.configure(snapshot);
+                }
+              }
+            });
             mainClientInterface = ClientInterface.this;
             if (callHandlerInterface == null) {
               callHandlerInterface = new CallHandlerInterface(messenger);
@@ -305,7 +378,79 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
               callHandlerInterface.switchToMessenger(messenger);
             }
             result.success(mapOf());
+            flushQueuedEvents();
             break;
+          case "getEngineStatus":
+            result.success(FlutterEngineWarmer.getStatus());
+            break;
+          case "reportIncomingCall":
+          case "placeCall": {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+              result.success(false);
+              break;
+            }
+            Map<?, ?> callArgs = (Map<?, ?>)call.arguments;
+            String callId = (String)callArgs.get("callId");
+            String callerName = (String)callArgs.get("callerName");
+            String number = (String)callArgs.get("number");
+            if (call.method.equals("placeCall")) {
+              CallConnectionService.placeCall(context, callId, callerName, number);
+              result.success(true);
+            } else {
+              result.success(CallConnectionService.reportIncomingCall(context, callId, callerName, number));
+            }
+            break;
+          }
+          case "getCallStats": {
+            Map<?, ?> statsArgs = (Map<?, ?>)call.arguments;
+            String callId = statsArgs != null ? (String)statsArgs.get("callId") : null;
+            result.success(CallService.instance != null ? CallService.instance.getCallStats(callId) : null);
+            break;
+          }
+          case "getMetrics": {
+            final Map<String, Object> metrics = CallMetrics.snapshot();
+            metrics.put("engine", FlutterEngineWarmer.getStatus());
+            metrics.put("mainThread", CallWorker.getStallDetector().toMap());
+            if (callHandlerInterface != null) {
+              metrics.put("handler", callHandlerInterface.toMap());
+            }
+            metrics.put("clients", mapOf(
+                    "count", clientInterfaces.size(),
+                    "dropped", clientInterfaces.getDroppedCount(),
+                    "coalesced", clientInterfaces.getCoalescedCount()));
+            metrics.put("permissions", PermissionUtils.toMap());
+            Map<?, ?> metricsArgs = (Map<?, ?>)call.arguments;
+            final boolean reset = metricsArgs != null && Boolean.TRUE.equals(metricsArgs.get("reset"));
+            // The service's helpers are owned by the call worker, so read them there and reply
+            // from the main thread once they are in.
+            CallWorker.post(new Runnable() {
+              @Override
+              public void run() {
+                CallService service = CallService.instance;
+                if (service != null) {
+                  metrics.put("stateUpdates", service.getStateUpdateCounters().toMap());
+                  metrics.put("stateMachine", service.getStateMachine().toMap());
+                  metrics.put("wakeLocks", service.getWakeLocks().toMap());
+                  metrics.put("notifications", service.getNotificationPoster().toMap());
+                  metrics.put("snapshots", service.getSnapshots().toMap());
+                  metrics.put("reachability", service.getReachability().toMap());
+                  metrics.put("dtmf", service.getDtmf().toMap());
+                  metrics.put("audio", service.getAudioSession().toMap());
+                  metrics.put("proximity", service.getProximity().toMap());
+                }
+                if (reset) {
+                  CallMetrics.reset();
+                }
+                CallWorker.runOnMain("getMetrics", new Runnable() {
+                  @Override
+                  public void run() {
+                    result.success(metrics);
+                  }
+                });
+              }
+            });
+            break;
+          }
         }
       } catch (Exception e) {
         e.printStackTrace();
@@ -314,20 +459,74 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
     }
   }
 
-  private static class CallHandlerInterface implements MethodCallHandler, CallService.ServiceListener {
+  private static class CallHandlerInterface implements MethodCallHandler, BasicMessageChannel.MessageHandler<ByteBuffer>, CallMessageCodec.Handler, CallService.ServiceListener {
     public BinaryMessenger messenger;
     public MethodChannel channel;
+    // Opt-in alternative to the setState/setMediaItem methods, see CallMessageCodec.
+    public BasicMessageChannel<ByteBuffer> binaryChannel;
+    // Sequence number of the last command applied from a batch, or -1 before the first.
+    private long lastSeq = -1;
+    private long batchCount;
+    private long commandCount;
+    private long gapCount;
+    private long staleCount;
     public CallHandlerInterface(BinaryMessenger messenger) {
       System.out.println("### new CallHandlerInterface");
       this.messenger = messenger;
       channel = new MethodChannel(messenger, CHANNEL_HANDLER);
       channel.setMethodCallHandler(this);
+      binaryChannel = new BasicMessageChannel<ByteBuffer>(messenger, CHANNEL_HANDLER_BINARY, BinaryCodec.INSTANCE);
+      binaryChannel.setMessageHandler(this);
     }
     public void switchToMessenger(BinaryMessenger messenger) {
       channel.setMethodCallHandler(null);
+      binaryChannel.setMessageHandler(null);
       this.messenger = messenger;
       channel = new MethodChannel(messenger, CHANNEL_HANDLER);
       channel.setMethodCallHandler(this);
+      binaryChannel = new BasicMessageChannel<ByteBuffer>(messenger, CHANNEL_HANDLER_BINARY, BinaryCodec.INSTANCE);
+      binaryChannel.setMessageHandler(this);
+    }
+
+    @Override
+    public void onMessage(ByteBuffer message, @NonNull BasicMessageChannel.Reply<ByteBuffer> reply) {
+      try {
+        if (message != null) {
+          // The message buffer is only valid during this call, so decode a copy on the worker.
+          final ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+          copy.put(message);
+          copy.flip();
+          CallWorker.post(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                CallMessageCodec.decode(copy, CallHandlerInterface.this);
+              } catch (Exception e) {
+                e.printStackTrace();
+              }
+            }
+          });
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+      reply.reply(null);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    @Override
+    public void onState(String callId, CallProcessingState processingState, boolean playing, long updateTime, Integer errorCode, String errorMessage) {
+      if (CallService.instance != null) {
+        CallService.instance.setState(callId, processingState, playing, errorCode, errorMessage);
+      }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    @Override
+    public void onCallData(CallData callData) {
+      if (CallService.instance != null) {
+        CallService.instance.setCallData(callData);
+      }
     }
 
     public void invokeMethod(String method, Object arg) {
@@ -398,60 +597,171 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
     @Override
     public void onMethodCall(@NonNull MethodCall call, @NonNull Result result) {
       System.out.println("### CallHandlerInterface message: " + call.method);
+      long start = CallMetrics.now();
       Map<?, ?> args = (Map<?, ?>)call.arguments;
-      switch (call.method) {
+      try {
+        if (call.method.equals("batch")) {
+          result.success(runBatch(args));
+        } else {
+          Runnable task = parseCommand(call.method, args);
+          if (task == null) {
+            result.notImplemented();
+          } else {
+            task.run();
+            result.success(null);
+          }
+        }
+      } catch (Exception e) {
+        e.printStackTrace();
+        result.error(e.getMessage(), null, null);
+      }
+      CallMetrics.record(CallMetrics.SPAN_HANDLER_MESSAGE, start);
+    }
+
+    /**
+     * Runs a batch of commands, e.g. the setMediaItem and setState messages sent at call setup,
+     * in one platform message. All commands are parsed before any is run, so a malformed batch or one
+     * with an unknown command changes nothing, and they are then applied in order in a single call
+     * worker task.
+     *
+     * <p>Commands may carry increasing sequence numbers ({@code seq}). Commands at or below the
+     * last applied sequence number are skipped as stale, and skipped numbers are reported as gaps,
+     * so Dart can tell that updates were lost or reordered. {@code reset: true} restarts numbering,
+     * e.g. after the Dart side restarts.
+     */
+    private Map<String, Object> runBatch(Map<?, ?> args) {
+      List<?> commands = (List<?>)args.get("commands");
+      long seq = Boolean.TRUE.equals(args.get("reset")) ? -1 : lastSeq;
+      final List<Runnable> tasks = new ArrayList<Runnable>(commands.size());
+      List<Object> gaps = new ArrayList<Object>();
+      List<Object> stale = new ArrayList<Object>();
+      for (Object rawCommand : commands) {
+        Map<?, ?> command = (Map<?, ?>)rawCommand;
+        Long commandSeq = getLong(command.get("seq"));
+        if (commandSeq != null) {
+          if (commandSeq <= seq) {
+            stale.add(commandSeq);
+            continue;
+          }
+          if (seq >= 0 && commandSeq > seq + 1) {
+            gaps.add(Arrays.asList(seq + 1, commandSeq - 1));
+          }
+          seq = commandSeq;
+        }
+        String method = (String)command.get("method");
+        Runnable task = parseCommand(method, (Map<?, ?>)command.get("args"));
+        if (task == null) {
+          throw new IllegalArgumentException("Unknown command " + method);
+        }
+        tasks.add(task);
+      }
+      lastSeq = seq;
+      batchCount++;
+      commandCount += tasks.size();
+      gapCount += gaps.size();
+      staleCount += stale.size();
+      CallWorker.post(new Runnable() {
+        @Override
+        public void run() {
+          for (Runnable task : tasks) {
+            // One failing command must not take the rest of the batch, or the worker, with it.
+            try {
+              task.run();
+            } catch (RuntimeException e) {
+              e.printStackTrace();
+            }
+          }
+        }
+      });
+      return mapOf(
+              "lastSeq", seq,
+              "applied", tasks.size(),
+              "gaps", gaps,
+              "stale", stale);
+    }
+
+    /**
+     * Parses a command up front and returns the task that applies it, or null if the method is
+     * unknown. The tasks do nothing if the service is gone by the time they run.
+     */
+    private Runnable parseCommand(String method, Map<?, ?> args) {
+      switch (method) {
         case "setMediaItem": {
           Map<?, ?> rawMediaItem = (Map<?, ?>)args.get("mediaItem");
-          CallData callData = createCallData(rawMediaItem);
-          CallService.instance.setCallData(callData);
-          result.success(null);
-          break;
+          final CallData callData = createCallData(rawMediaItem);
+          return new Runnable() {
+            @Override
+            public void run() {
+              if (CallService.instance != null) {
+                CallService.instance.setCallData(callData);
+              }
+            }
+          };
         }
         case "setState": {
           Map<?, ?> stateMap = (Map<?, ?>)args.get("state");
-          CallProcessingState processingState = CallProcessingState.values()[(Integer)stateMap.get("processingState")];
-          boolean playing = (Boolean)stateMap.get("playing");
-          long updateTimeSinceEpoch = stateMap.get("updateTime") == null ? System.currentTimeMillis() : getLong(stateMap.get("updateTime"));
-          Integer errorCode = (Integer)stateMap.get("errorCode");
-          String errorMessage = (String)stateMap.get("errorMessage");
-          CallService.instance.setState(processingState,playing, errorCode,errorMessage);
-          // On the flutter side, we represent the update time relative to the epoch.
-          // On the native side, we must represent the update time relative to the boot time.
-          long updateTimeSinceBoot = updateTimeSinceEpoch - bootTime;
-          break;
+          final CallProcessingState processingState = CallProcessingState.values()[(Integer)stateMap.get("processingState")];
+          final boolean playing = (Boolean)stateMap.get("playing");
+          final Integer errorCode = (Integer)stateMap.get("errorCode");
+          final String errorMessage = (String)stateMap.get("errorMessage");
+          // Without a callId the state applies to the most recently set media item.
+          final String callId = (String)(stateMap.get("callId") != null ? stateMap.get("callId") : args.get("callId"));
+          return new Runnable() {
+            @Override
+            public void run() {
+              if (CallService.instance != null) {
+                CallService.instance.setState(callId, processingState, playing, errorCode, errorMessage);
+              }
+            }
+          };
         }
         case "stopService": {
-          if (CallService.instance != null) {
-            CallService.instance.stop();
-          }
-          result.success(null);
-          break;
+          return new Runnable() {
+            @Override
+            public void run() {
+              if (CallService.instance != null) {
+                CallService.instance.stop();
+              }
+            }
+          };
         }
+        case "setAndroidPlaybackInfo": {
+          // Sent by the Dart API along with media state; calls have no remote playback volume.
+          return new Runnable() {
+            @Override
+            public void run() {
+            }
+          };
+        }
+        default:
+          return null;
       }
     }
+
+    public Map<String, Object> toMap() {
+      return mapOf(
+              "batches", batchCount,
+              "commands", commandCount,
+              "gaps", gapCount,
+              "stale", staleCount,
+              "lastSeq", lastSeq);
+    }
+
     private static CallData createCallData(Map<?, ?> rawMediaItem) {
-      CallData callData= new CallData();
-      callData.callId= (String)rawMediaItem.get("id");
-      callData.callerName= (String)rawMediaItem.get("title");
-      callData.description= (String)rawMediaItem.get("album");
-      return callData;
+      return ChannelValues.createCallData(rawMediaItem);
     }
   }
 
 
   static Map<String, Object> mapOf(Object... args) {
-    Map<String, Object> map = new HashMap<String, Object>();
-    for (int i = 0; i < args.length; i += 2) {
-      map.put((String)args[i], args[i + 1]);
-    }
-    return map;
+    return ChannelValues.mapOf(args);
   }
   public static Long getLong(Object o) {
-    return (o == null || o instanceof Long) ? (Long)o : new Long(((Integer)o).intValue());
+    return ChannelValues.getLong(o);
   }
 
   public static Integer getInt(Object o) {
-    return (o == null || o instanceof Integer) ? (Integer)o : new Integer((int)((Long)o).longValue());
+    return ChannelValues.getInt(o);
   }
   private String getApplicationName(Context appContext) {
     ApplicationInfo applicationInfo = appContext.getApplicationInfo();
@@ -459,19 +769,6 @@ public class CallServicePlugin implements FlutterPlugin, ActivityAware {
     return stringId == 0 ? applicationInfo.nonLocalizedLabel.toString() : appContext.getString(stringId);
   }
   static Map<String, Object> bundleToMap(Bundle bundle) {
-    if (bundle == null) return null;
-    Map<String, Object> map = new HashMap<String, Object>();
-    for (String key : bundle.keySet()) {
-      Object value = bundle.get(key);
-      if (value instanceof Integer
-              || value instanceof Long
-              || value instanceof Double
-              || value instanceof Float
-              || value instanceof Boolean
-              || value instanceof String) {
-        map.put(key, value);
-      }
-    }
-    return map;
+    return ChannelValues.bundleToMap(bundle);
   }
 }
\ No newline at end of file
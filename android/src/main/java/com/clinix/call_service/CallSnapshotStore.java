@@ -0,0 +1,294 @@
+package com.clinix.call_service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the active calls in a small append-only file so {@link CallService} can restore their
+ * notifications natively when the system restarts it after killing the process mid-call.
+ *
+ * <p>Each call transition appends one record of the form {@code [int length][payload][int crc]}.
+ * Every write goes straight to the file descriptor, so a record survives the process being killed
+ * once the write returns. Reading stops at the first torn or corrupt record. The file is rewritten
+ * with only the live calls once it grows past {@link #COMPACT_BYTES}.
+ *
+ * <p>Must only be used from the {@link CallWorker} thread.
+ */
+public class CallSnapshotStore {
+    public static final String FILE_NAME = "call_service_calls.bin";
+    static final int COMPACT_BYTES = 8 * 1024;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    public static class Snapshot {
+        public final String callId;
+        public final String callerName;
+        public final String description;
+        public final CallProcessingState processingState;
+        public final boolean playing;
+
+        Snapshot(String callId, String callerName, String description, CallProcessingState processingState, boolean playing) {
+            this.callId = callId;
+            this.callerName = callerName;
+            this.description = description;
+            this.processingState = processingState;
+            this.playing = playing;
+        }
+
+        boolean sameAs(String callerName, String description, CallProcessingState processingState, boolean playing) {
+            return equal(this.callerName, callerName)
+                    && equal(this.description, description)
+                    && this.processingState == processingState
+                    && this.playing == playing;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("callId", callId);
+            map.put("callerName", callerName);
+            map.put("description", description);
+            map.put("processingState", processingState.ordinal());
+            map.put("playing", playing);
+            return map;
+        }
+    }
+
+    private final File file;
+    private final LinkedHashMap<String, Snapshot> live = new LinkedHashMap<>();
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+    private FileOutputStream out;
+    private long fileBytes;
+    private long writeCount;
+    private long compactionCount;
+
+    public CallSnapshotStore(File file) {
+        this.file = file;
+    }
+
+    /** Reads the calls left by a previous process. */
+    public List<Snapshot> load() {
+        live.clear();
+        if (file.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new FileInputStream(file));
+                while (readRecord(in)) {
+                    // Keep reading.
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                close(in);
+            }
+            try {
+                // Drop superseded and torn records so new ones are not appended after garbage.
+                rewrite();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return new ArrayList<Snapshot>(live.values());
+    }
+
+    public void put(CallRegistry.Entry entry) {
+        CallData callData = entry.callData;
+        String callerName = callData != null ? callData.callerName : null;
+        String description = callData != null ? callData.description : null;
+        Snapshot previous = live.get(entry.callId);
+        if (previous != null && previous.sameAs(callerName, description, entry.processingState, entry.playing)) return;
+        Snapshot snapshot = new Snapshot(entry.callId, callerName, description, entry.processingState, entry.playing);
+        live.put(snapshot.callId, snapshot);
+        try {
+            encodePut(snapshot);
+            append();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void remove(String callId) {
+        if (live.remove(callId) == null) return;
+        try {
+            beginRecord(RECORD_REMOVE, callId);
+            append();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Forgets every call and truncates the file. */
+    public void clear() {
+        live.clear();
+        try {
+            rewrite();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isEmpty() {
+        return live.isEmpty();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("calls", live.size());
+        map.put("bytes", fileBytes);
+        map.put("writes", writeCount);
+        map.put("compactions", compactionCount);
+        return map;
+    }
+
+    private boolean readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        if (length <= 0 || length > COMPACT_BYTES) return false;
+        byte[] payload = new byte[length];
+        int checksum;
+        try {
+            in.readFully(payload);
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            // Torn write at the tail: the process died while appending.
+            return false;
+        }
+        crc.reset();
+        crc.update(payload, 0, length);
+        if ((int)crc.getValue() != checksum) return false;
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = fields.readByte();
+        String callId = fields.readUTF();
+        if (type == RECORD_PUT) {
+            String callerName = readNullableString(fields);
+            String description = readNullableString(fields);
+            int state = fields.readByte();
+            boolean playing = fields.readBoolean();
+            CallProcessingState[] states = CallProcessingState.values();
+            if (state < 0 || state >= states.length) return false;
+            live.put(callId, new Snapshot(callId, callerName, description, states[state], playing));
+        } else if (type == RECORD_REMOVE) {
+            live.remove(callId);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void encodePut(Snapshot snapshot) throws IOException {
+        beginRecord(RECORD_PUT, snapshot.callId);
+        writeNullableString(snapshot.callerName);
+        writeNullableString(snapshot.description);
+        record.writeByte(snapshot.processingState.ordinal());
+        record.writeBoolean(snapshot.playing);
+    }
+
+    private void beginRecord(byte type, String callId) throws IOException {
+        recordBytes.reset();
+        record.writeByte(type);
+        record.writeUTF(callId);
+    }
+
+    private void append() throws IOException {
+        if (fileBytes + recordBytes.size() + 8 > COMPACT_BYTES) {
+            // The live calls are already in memory, so compacting writes just them.
+            rewrite();
+            return;
+        }
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+        }
+        writeFramed(out, recordBytes.toByteArray());
+        writeCount++;
+    }
+
+    private void rewrite() throws IOException {
+        close(out);
+        out = null;
+        fileBytes = 0;
+        if (live.isEmpty()) {
+            if (file.exists() && !file.delete()) {
+                new FileOutputStream(file).close();
+            }
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream tmpOut = new FileOutputStream(tmp);
+        try {
+            for (Snapshot snapshot : live.values()) {
+                encodePut(snapshot);
+                writeFramed(tmpOut, recordBytes.toByteArray());
+            }
+            tmpOut.getFD().sync();
+        } finally {
+            tmpOut.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+        writeCount++;
+        compactionCount++;
+    }
+
+    private void writeFramed(FileOutputStream stream, byte[] payload) throws IOException {
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        byte[] frame = new byte[payload.length + 8];
+        putInt(frame, 0, payload.length);
+        System.arraycopy(payload, 0, frame, 4, payload.length);
+        putInt(frame, 4 + payload.length, (int)crc.getValue());
+        // One write per record, so a kill leaves at most one torn record at the tail.
+        stream.write(frame);
+        fileBytes += frame.length;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte)(value >>> 24);
+        bytes[offset + 1] = (byte)(value >>> 16);
+        bytes[offset + 2] = (byte)(value >>> 8);
+        bytes[offset + 3] = (byte)value;
+    }
+
+    private void writeNullableString(String value) throws IOException {
+        record.writeBoolean(value != null);
+        if (value != null) {
+            record.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.clinix.call_service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transition table over {@link CallProcessingState} x playing. Each cell holds the actions
+ * {@link CallService} runs when a call moves from one state to another, or {@link #REJECTED} for
+ * transitions that make no sense for a call. The table is built once, so looking up a transition
+ * and recording how long the previous phase lasted allocate nothing.
+ */
+public class CallStateMachine {
+    /** Start foreground mode (or post the call's own notification) and hold the wake lock. */
+    public static final int ACTION_ENTER_PLAYING = 1;
+    /** Leave foreground mode for the call. */
+    public static final int ACTION_EXIT_PLAYING = 1 << 1;
+    /** Remove the call, stopping the service if it was the last one. */
+    public static final int ACTION_END_CALL = 1 << 2;
+    /** Refresh the call's notification. */
+    public static final int ACTION_UPDATE_NOTIFICATION = 1 << 3;
+    public static final int REJECTED = -1;
+
+    private static final CallProcessingState[] STATES = CallProcessingState.values();
+    private static final int[][] TRANSITIONS = new int[STATES.length * 2][STATES.length * 2];
+    static {
+        for (CallProcessingState from : STATES) {
+            for (int fromPlaying = 0; fromPlaying < 2; fromPlaying++) {
+                for (CallProcessingState to : STATES) {
+                    for (int toPlaying = 0; toPlaying < 2; toPlaying++) {
+                        TRANSITIONS[index(from, fromPlaying == 1)][index(to, toPlaying == 1)] =
+                                actions(from, fromPlaying == 1, to, toPlaying == 1);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int actions(CallProcessingState from, boolean fromPlaying, CallProcessingState to, boolean toPlaying) {
+        // A completed call must go back to idle before it can be reused.
+        if (from == CallProcessingState.completed && to != CallProcessingState.completed && to != CallProcessingState.idle) {
+            return REJECTED;
+        }
+        boolean fromEnded = from == CallProcessingState.idle || from == CallProcessingState.completed;
+        boolean toEnded = to == CallProcessingState.idle || to == CallProcessingState.completed;
+        if (toEnded && toPlaying && !fromPlaying) {
+            // Starting to play as the call ends would post the call's notification only to remove
+            // it again. A call that has not started has nothing to end either, so such an update
+            // can only be stale or out of order.
+            if (fromEnded) return REJECTED;
+            return ACTION_END_CALL;
+        }
+        int actions = 0;
+        if (!fromPlaying && toPlaying) {
+            actions |= ACTION_ENTER_PLAYING;
+        } else if (fromPlaying && !toPlaying) {
+            actions |= ACTION_EXIT_PLAYING;
+        }
+        if (!fromEnded && toEnded) {
+            actions |= ACTION_END_CALL;
+        }
+        if (from != CallProcessingState.ready && to == CallProcessingState.ready) {
+            actions |= ACTION_UPDATE_NOTIFICATION;
+        }
+        return actions;
+    }
+
+    private static int index(CallProcessingState state, boolean playing) {
+        return state.ordinal() * 2 + (playing ? 1 : 0);
+    }
+
+    private final LatencyHistogram[] phaseDurations = new LatencyHistogram[STATES.length];
+    private final AtomicLong transitionCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public CallStateMachine() {
+        for (int i = 0; i < phaseDurations.length; i++) {
+            phaseDurations[i] = new LatencyHistogram(LatencyHistogram.DURATION_BOUNDS_US);
+        }
+    }
+
+    /** Returns the actions for the transition as a bit set, or {@link #REJECTED}. */
+    public int transition(CallProcessingState from, boolean fromPlaying, CallProcessingState to, boolean toPlaying) {
+        int actions = TRANSITIONS[index(from, fromPlaying)][index(to, toPlaying)];
+        if (actions == REJECTED) {
+            rejectedCount.incrementAndGet();
+        } else {
+            transitionCount.incrementAndGet();
+        }
+        return actions;
+    }
+
+    /** Records how long a call stayed in {@code state} before leaving it. */
+    public void recordPhase(CallProcessingState state, long nanos) {
+        phaseDurations[state.ordinal()].recordNanos(nanos);
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> phases = new HashMap<String, Object>();
+        for (CallProcessingState state : STATES) {
+            phases.put(state.name(), phaseDurations[state.ordinal()].toMap());
+        }
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("transitions", transitionCount.get());
+        map.put("rejected", rejectedCount.get());
+        map.put("phases", phases);
+        return map;
+    }
+}
@@ -0,0 +1,170 @@
+package com.clinix.call_service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-call statistics: time from ring to answer, answer to first ready, call duration, notification
+ * posts and wake lock held time. Each {@link CallRegistry.Entry} carries a {@link CallStats},
+ * started when the worker first sees the call and written only by the worker. When the call ends
+ * its stats are folded into fixed-size histograms and copied into a preallocated ring of recent
+ * calls. Recording and finishing allocate nothing and take no locks; readers on other threads
+ * retry instead of blocking the worker.
+ */
+public class CallStatsRecorder {
+    private static final int MAX_RECENT_CALLS = 16;
+
+    /** The numbers of one call. Times are {@link CallMetrics#now} nanos, 0 if not reached. */
+    public static class CallStats {
+        // Odd while the worker is writing, so readers know to retry.
+        private volatile int version;
+        private volatile String callId;
+        private volatile long ringNanos;
+        private volatile long answerNanos;
+        private volatile long readyNanos;
+        private volatile long endNanos;
+        private volatile long notificationPosts;
+        private volatile long wakeLockHeldMs;
+
+        void start(String callId, long now) {
+            version++;
+            this.callId = callId;
+            ringNanos = now;
+            answerNanos = 0;
+            readyNanos = 0;
+            endNanos = 0;
+            notificationPosts = 0;
+            wakeLockHeldMs = 0;
+            version++;
+        }
+
+        void copyFrom(CallStats other) {
+            version++;
+            callId = other.callId;
+            ringNanos = other.ringNanos;
+            answerNanos = other.answerNanos;
+            readyNanos = other.readyNanos;
+            endNanos = other.endNanos;
+            notificationPosts = other.notificationPosts;
+            wakeLockHeldMs = other.wakeLockHeldMs;
+            version++;
+        }
+
+        /** Returns the stats as a map, or null if they are being written or were never used. */
+        Map<String, Object> toMap() {
+            for (int attempt = 0; attempt < 8; attempt++) {
+                int before = version;
+                if ((before & 1) != 0) continue;
+                String callId = this.callId;
+                long ring = ringNanos;
+                long answer = answerNanos;
+                long ready = readyNanos;
+                long end = endNanos;
+                long posts = notificationPosts;
+                long heldMs = wakeLockHeldMs;
+                if (version != before) continue;
+                if (callId == null) return null;
+                long now = end != 0 ? end : CallMetrics.now();
+                Map<String, Object> map = new HashMap<String, Object>();
+                map.put("callId", callId);
+                map.put("ended", end != 0);
+                map.put("ringToAnswerMs", answer != 0 ? (answer - ring) / 1000000 : null);
+                map.put("answerToReadyMs", answer != 0 && ready != 0 ? (ready - answer) / 1000000 : null);
+                map.put("durationMs", answer != 0 ? (now - answer) / 1000000 : 0L);
+                map.put("notificationPosts", posts);
+                map.put("wakeLockHeldMs", heldMs);
+                return map;
+            }
+            return null;
+        }
+    }
+
+    private final LatencyHistogram ringToAnswer = new LatencyHistogram(LatencyHistogram.DURATION_BOUNDS_US);
+    private final LatencyHistogram answerToReady = new LatencyHistogram(LatencyHistogram.DURATION_BOUNDS_US);
+    private final LatencyHistogram duration = new LatencyHistogram(LatencyHistogram.DURATION_BOUNDS_US);
+    private final CallStats[] recent = new CallStats[MAX_RECENT_CALLS];
+    private volatile int recentCount;
+    private volatile long finishedCount;
+
+    public CallStatsRecorder() {
+        for (int i = 0; i < recent.length; i++) {
+            recent[i] = new CallStats();
+        }
+    }
+
+    /** The call started playing for the first time. */
+    public void onAnswer(CallStats stats) {
+        if (stats.answerNanos == 0) {
+            stats.version++;
+            stats.answerNanos = CallMetrics.now();
+            stats.version++;
+        }
+    }
+
+    /** The call reached ready for the first time after being answered. */
+    public void onReady(CallStats stats) {
+        if (stats.answerNanos != 0 && stats.readyNanos == 0) {
+            stats.version++;
+            stats.readyNanos = CallMetrics.now();
+            stats.version++;
+        }
+    }
+
+    public void onNotificationPosted(CallStats stats) {
+        stats.version++;
+        stats.notificationPosts++;
+        stats.version++;
+    }
+
+    /** Finishes the call's stats, once; {@code wakeLockHeldMs} comes from the lease manager. */
+    public void onEnd(CallStats stats, long wakeLockHeldMs) {
+        if (stats.endNanos != 0 || stats.callId == null) return;
+        stats.version++;
+        stats.wakeLockHeldMs = wakeLockHeldMs;
+        stats.endNanos = CallMetrics.now();
+        stats.version++;
+        if (stats.answerNanos != 0) {
+            ringToAnswer.recordNanos(stats.answerNanos - stats.ringNanos);
+            duration.recordNanos(stats.endNanos - stats.answerNanos);
+            if (stats.readyNanos != 0) {
+                answerToReady.recordNanos(stats.readyNanos - stats.answerNanos);
+            }
+        }
+        recent[(int)(finishedCount % MAX_RECENT_CALLS)].copyFrom(stats);
+        finishedCount++;
+        recentCount = (int)Math.min(finishedCount, MAX_RECENT_CALLS);
+    }
+
+    /** Stats of a recently ended call, newest first, or null. */
+    public Map<String, Object> getRecent(String callId) {
+        for (Map<String, Object> stats : getRecent()) {
+            if (callId.equals(stats.get("callId"))) return stats;
+        }
+        return null;
+    }
+
+    /** Stats of recently ended calls, newest first. */
+    public List<Map<String, Object>> getRecent() {
+        long finished = finishedCount;
+        int count = recentCount;
+        List<Map<String, Object>> list = new ArrayList<Map<String, Object>>(count);
+        for (int i = 1; i <= count; i++) {
+            Map<String, Object> stats = recent[(int)((finished - i) % MAX_RECENT_CALLS)].toMap();
+            if (stats != null) {
+                list.add(stats);
+            }
+        }
+        return list;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("finished", finishedCount);
+        map.put("ringToAnswer", ringToAnswer.toMap());
+        map.put("answerToReady", answerToReady.toMap());
+        map.put("duration", duration.toMap());
+        return map;
+    }
+}
@@ -0,0 +1,81 @@
+package com.clinix.call_service;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * The thread that owns call work that does not need the UI thread: applying call state, building
+ * and posting notifications, wake lock changes, decoding binary channel messages and config I/O.
+ * The few calls that must happen on the main thread, such as {@code startForeground}, are
+ * marshalled back with {@link #runOnMain}, which times them for the {@link MainThreadStallDetector}.
+ */
+public class CallWorker {
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static volatile Handler handler;
+    private static volatile MainThreadStallDetector stallDetector;
+
+    public static Handler getHandler() {
+        Handler h = handler;
+        if (h == null) {
+            synchronized (CallWorker.class) {
+                h = handler;
+                if (h == null) {
+                    HandlerThread thread = new HandlerThread("call_worker", Process.THREAD_PRIORITY_FOREGROUND);
+                    thread.start();
+                    h = new Handler(thread.getLooper());
+                    handler = h;
+                }
+            }
+        }
+        return h;
+    }
+
+    public static MainThreadStallDetector getStallDetector() {
+        MainThreadStallDetector detector = stallDetector;
+        if (detector == null) {
+            synchronized (CallWorker.class) {
+                detector = stallDetector;
+                if (detector == null) {
+                    // Not the worker: the watchdog must keep running when the worker is blocked too.
+                    HandlerThread thread = new HandlerThread("call_stall_watchdog", Process.THREAD_PRIORITY_FOREGROUND);
+                    thread.start();
+                    detector = new MainThreadStallDetector(mainHandler, new Handler(thread.getLooper()), MainThreadStallDetector.DEFAULT_THRESHOLD_MS);
+                    stallDetector = detector;
+                }
+            }
+        }
+        return detector;
+    }
+
+    public static boolean isCurrentThread() {
+        return getHandler().getLooper().isCurrentThread();
+    }
+
+    public static void post(Runnable task) {
+        getHandler().post(task);
+    }
+
+    /** Runs the task right away if called on the worker, otherwise posts it. */
+    public static void run(Runnable task) {
+        if (isCurrentThread()) {
+            task.run();
+        } else {
+            getHandler().post(task);
+        }
+    }
+
+    /** Posts a task to the main thread, reporting it as {@code name} if it stalls the looper. */
+    public static void runOnMain(final String name, final Runnable task) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.uptimeMillis();
+                task.run();
+                getStallDetector().onMainTaskFinished(name, SystemClock.uptimeMillis() - start);
+            }
+        });
+    }
+}
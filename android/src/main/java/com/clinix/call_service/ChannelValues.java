@@ -0,0 +1,54 @@
+package com.clinix.call_service;
+
+import android.os.Bundle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conversions between method channel values and native types. Kept free of Flutter dependencies
+ * so the per-message cost can be benchmarked on the JVM (see the benchmark module).
+ */
+public class ChannelValues {
+    public static Map<String, Object> mapOf(Object... args) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < args.length; i += 2) {
+            map.put((String)args[i], args[i + 1]);
+        }
+        return map;
+    }
+
+    public static Long getLong(Object o) {
+        return (o == null || o instanceof Long) ? (Long)o : Long.valueOf(((Integer)o).intValue());
+    }
+
+    public static Integer getInt(Object o) {
+        return (o == null || o instanceof Integer) ? (Integer)o : Integer.valueOf((int)((Long)o).longValue());
+    }
+
+    public static Map<String, Object> bundleToMap(Bundle bundle) {
+        if (bundle == null) return null;
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            if (value instanceof Integer
+                    || value instanceof Long
+                    || value instanceof Double
+                    || value instanceof Float
+                    || value instanceof Boolean
+                    || value instanceof String) {
+                map.put(key, value);
+            }
+        }
+        return map;
+    }
+
+    /** Converts a media item map sent by Dart. */
+    public static CallData createCallData(Map<?, ?> rawMediaItem) {
+        CallData callData = new CallData();
+        callData.callId = (String)rawMediaItem.get("id");
+        callData.callerName = (String)rawMediaItem.get("title");
+        callData.description = (String)rawMediaItem.get("album");
+        return callData;
+    }
+}
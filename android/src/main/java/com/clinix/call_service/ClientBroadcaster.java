@@ -0,0 +1,219 @@
+package com.clinix.call_service;
+
+import android.os.Handler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans method calls out to every attached client. Clients can be added and removed from any thread
+ * while broadcasting, since broadcasts iterate a copy-on-write snapshot. Each client has its own
+ * bounded queue drained on the handler's thread a few messages at a time, so a broadcast never
+ * blocks and one busy client does not hold up the others. What happens when a queue is full is up
+ * to the {@link OverflowPolicy}.
+ */
+public class ClientBroadcaster<C extends ClientBroadcaster.Client> {
+    public interface Client {
+        void invokeMethod(String method, Object arg);
+    }
+
+    public enum OverflowPolicy {
+        /** Drop the oldest queued message to make room. */
+        DROP_OLDEST,
+        /** Drop the message being broadcast. */
+        DROP_NEWEST,
+        /**
+         * Merge the message into a queued one of the same method if the method was registered with
+         * {@link #setCoalescedMethods}, otherwise queue it beyond the capacity. Nothing is dropped,
+         * so events such as a call ending always arrive; only state updates are merged.
+         */
+        COALESCE_BY_METHOD,
+    }
+
+    private static final int MAX_MESSAGES_PER_DRAIN = 8;
+
+    private final Handler handler;
+    private final CopyOnWriteArrayList<ClientQueue> queues = new CopyOnWriteArrayList<>();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile int capacity;
+    private volatile OverflowPolicy overflowPolicy;
+    private volatile Set<String> coalescedMethods = Collections.emptySet();
+
+    public ClientBroadcaster(Handler handler, int capacity, OverflowPolicy overflowPolicy) {
+        this.handler = handler;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Methods that report state, where a newer message supersedes an older one, and that
+     * {@link OverflowPolicy#COALESCE_BY_METHOD} may therefore merge. Map arguments are merged key by
+     * key, so methods that send only what changed lose nothing.
+     */
+    public void setCoalescedMethods(String... methods) {
+        coalescedMethods = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(methods)));
+    }
+
+    public void add(C client) {
+        if (find(client) == null) {
+            queues.add(new ClientQueue(client));
+        }
+    }
+
+    public void remove(C client) {
+        ClientQueue queue = find(client);
+        if (queue != null) {
+            queue.close();
+            queues.remove(queue);
+        }
+    }
+
+    public int size() {
+        return queues.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<C> getClients() {
+        List<C> clients = new ArrayList<C>(queues.size());
+        for (ClientQueue queue : queues) {
+            clients.add((C)queue.client);
+        }
+        return clients;
+    }
+
+    public void broadcast(String method, Object arg) {
+        for (ClientQueue queue : queues) {
+            queue.offer(method, arg);
+        }
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    private ClientQueue find(C client) {
+        for (ClientQueue queue : queues) {
+            if (queue.client == client) return queue;
+        }
+        return null;
+    }
+
+    private static class Message {
+        final String method;
+        Object arg;
+
+        Message(String method, Object arg) {
+            this.method = method;
+            this.arg = arg;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object merge(Object older, Object newer) {
+        if (!(older instanceof Map) || !(newer instanceof Map)) return newer;
+        // The arguments belong to the broadcaster's callers, so merge into a copy.
+        Map<Object, Object> merged = new HashMap<Object, Object>((Map<Object, Object>)older);
+        merged.putAll((Map<Object, Object>)newer);
+        return merged;
+    }
+
+    private class ClientQueue implements Runnable {
+        final Client client;
+        // Guarded by this.
+        private final ArrayDeque<Message> messages = new ArrayDeque<>();
+        private boolean scheduled;
+        private boolean closed;
+
+        ClientQueue(Client client) {
+            this.client = client;
+        }
+
+        synchronized void offer(String method, Object arg) {
+            if (closed) return;
+            if (messages.size() >= capacity) {
+                switch (overflowPolicy) {
+                    case DROP_NEWEST:
+                        droppedCount.incrementAndGet();
+                        return;
+                    case COALESCE_BY_METHOD:
+                        if (coalesce(method, arg)) return;
+                        break;
+                    case DROP_OLDEST:
+                        messages.pollFirst();
+                        droppedCount.incrementAndGet();
+                        break;
+                }
+            }
+            messages.addLast(new Message(method, arg));
+            if (!scheduled) {
+                scheduled = true;
+                handler.post(this);
+            }
+        }
+
+        private boolean coalesce(String method, Object arg) {
+            if (!coalescedMethods.contains(method)) return false;
+            for (Iterator<Message> it = messages.descendingIterator(); it.hasNext();) {
+                Message message = it.next();
+                if (message.method.equals(method)) {
+                    message.arg = merge(message.arg, arg);
+                    coalescedCount.incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized void close() {
+            closed = true;
+            messages.clear();
+            handler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_MESSAGES_PER_DRAIN; i++) {
+                Message message;
+                synchronized (this) {
+                    message = messages.pollFirst();
+                    if (message == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                client.invokeMethod(message.method, message.arg);
+            }
+            synchronized (this) {
+                if (messages.isEmpty()) {
+                    scheduled = false;
+                } else {
+                    // Yield so other clients' queues get a turn.
+                    handler.post(this);
+                }
+            }
+        }
+    }
+}
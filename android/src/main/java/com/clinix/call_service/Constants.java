@@ -7,13 +7,18 @@ public class Constants {
     public static final String ACTION_DTMF_TONE = "ACTION_DTMF_TONE";
     public static final String ACTION_END_CALL = "ACTION_END_CALL";
     public static final String ACTION_HOLD_CALL = "ACTION_HOLD_CALL";
+    public static final String ACTION_INCOMING_CALL = "ACTION_INCOMING_CALL";
     public static final String ACTION_MUTE_CALL = "ACTION_MUTE_CALL";
     public static final String ACTION_ONGOING_CALL = "ACTION_ONGOING_CALL";
     public static final String ACTION_UNHOLD_CALL = "ACTION_UNHOLD_CALL";
     public static final String ACTION_UNMUTE_CALL = "ACTION_UNMUTE_CALL";
     public static final String ACTION_WAKE_APP = "ACTION_WAKE_APP";
 
+    public static final String EXTRA_AUDIO_SESSION_ACTIVE = "EXTRA_AUDIO_SESSION_ACTIVE";
     public static final String EXTRA_CALL_NUMBER = "EXTRA_CALL_NUMBER";
     public static final String EXTRA_CALL_UUID = "EXTRA_CALL_UUID";
     public static final String EXTRA_CALLER_NAME = "EXTRA_CALLER_NAME";
+    public static final String EXTRA_DTMF_DIGIT = "EXTRA_DTMF_DIGIT";
+    public static final String EXTRA_REACHABILITY_TARGET = "EXTRA_REACHABILITY_TARGET";
+    public static final String EXTRA_SPEAKER_ON = "EXTRA_SPEAKER_ON";
 }
@@ -0,0 +1,180 @@
+package com.clinix.call_service;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays DTMF key presses natively, so IVR navigation does not wait for a round-trip through Dart.
+ *
+ * <p>The PCM of all 16 digits is computed once, each tone followed by the minimum inter-digit gap,
+ * so playing a key press only copies a precomputed table into the audio track. Presses are queued
+ * and written by a dedicated thread, since writing to a streaming track blocks until the audio has
+ * been consumed. Neither queueing nor playing a press allocates.
+ *
+ * <p>The track is paused shortly after the last press, so it does not keep pulling silence, and the
+ * thread releases it and exits once no key has been pressed for a while. The next press starts a
+ * new one.
+ */
+public class DtmfToneGenerator {
+    private static final String TAG = "CliniX:DtmfTones";
+    public static final int SAMPLE_RATE = 16000;
+    public static final int TONE_MS = 100;
+    public static final int GAP_MS = 50;
+    public static final String DIGITS = "123A456B789C*0#D";
+    public static final int[] ROW_FREQUENCIES = {697, 770, 852, 941};
+    public static final int[] COLUMN_FREQUENCIES = {1209, 1336, 1477, 1633};
+    // Ramp the tone in and out so it starts and ends without a click.
+    private static final int RAMP_MS = 4;
+    // Each of the two sines peaks at this fraction of full scale.
+    private static final double AMPLITUDE = 0.35;
+    private static final int MAX_QUEUED_TONES = 32;
+    // Long enough for the buffered tones to have played out.
+    private static final long IDLE_PAUSE_MS = 1000;
+    private static final long IDLE_RELEASE_MS = 10 * 1000;
+
+    private static final int TONE_SAMPLES = SAMPLE_RATE * TONE_MS / 1000;
+    public static final int SAMPLES_PER_DIGIT = TONE_SAMPLES + SAMPLE_RATE * GAP_MS / 1000;
+    private static final short[][] TABLES = new short[DIGITS.length()][];
+    static {
+        int ramp = SAMPLE_RATE * RAMP_MS / 1000;
+        for (int i = 0; i < TABLES.length; i++) {
+            double low = 2 * Math.PI * ROW_FREQUENCIES[i / 4] / SAMPLE_RATE;
+            double high = 2 * Math.PI * COLUMN_FREQUENCIES[i % 4] / SAMPLE_RATE;
+            short[] table = new short[SAMPLES_PER_DIGIT];
+            for (int n = 0; n < TONE_SAMPLES; n++) {
+                double gain = Math.min(1.0, Math.min(n, TONE_SAMPLES - 1 - n) / (double)ramp);
+                double sample = AMPLITUDE * gain * (Math.sin(low * n) + Math.sin(high * n));
+                table[n] = (short)Math.round(sample * Short.MAX_VALUE);
+            }
+            TABLES[i] = table;
+        }
+    }
+
+    /** Index of {@code digit} in {@link #DIGITS}, or -1 if it is not a DTMF digit. */
+    public static int indexOf(char digit) {
+        return DIGITS.indexOf(Character.toUpperCase(digit));
+    }
+
+    /**
+     * Copies the samples of {@code digit} into {@code buffer} at {@code offset} and returns how
+     * many were written, which is {@link #SAMPLES_PER_DIGIT}, or 0 for an unknown digit.
+     */
+    public static int render(char digit, short[] buffer, int offset) {
+        int index = indexOf(digit);
+        if (index < 0) return 0;
+        System.arraycopy(TABLES[index], 0, buffer, offset, SAMPLES_PER_DIGIT);
+        return SAMPLES_PER_DIGIT;
+    }
+
+    // Digits are queued as Characters, which are cached for ASCII, so offering one allocates nothing.
+    private final ArrayBlockingQueue<Character> queue = new ArrayBlockingQueue<>(MAX_QUEUED_TONES);
+    private final AtomicLong playedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private Thread thread;
+
+    /** Queues a key press. Returns false for an unknown digit or if too many presses are queued. */
+    public boolean play(char digit) {
+        if (indexOf(digit) < 0) return false;
+        if (!queue.offer(digit)) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        startThread();
+        return true;
+    }
+
+    public synchronized void release() {
+        queue.clear();
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("played", playedCount.get());
+        map.put("dropped", droppedCount.get());
+        map.put("queued", queue.size());
+        return map;
+    }
+
+    private synchronized void startThread() {
+        if (thread != null) return;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                playQueued();
+            }
+        }, "dtmf");
+        thread.start();
+    }
+
+    private void playQueued() {
+        AudioTrack track = new AudioTrack(
+                new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_VOICE_COMMUNICATION_SIGNALLING)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                        .build(),
+                new AudioFormat.Builder()
+                        .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                        .setSampleRate(SAMPLE_RATE)
+                        .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+                        .build(),
+                Math.max(SAMPLES_PER_DIGIT * 2, AudioTrack.getMinBufferSize(
+                        SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT)),
+                AudioTrack.MODE_STREAM,
+                AudioManager.AUDIO_SESSION_ID_GENERATE);
+        try {
+            if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+                Log.w(TAG, "DTMF audio track failed to initialize");
+                // Drop what is queued rather than retry on a track that cannot play.
+                droppedCount.addAndGet(queue.size());
+                queue.clear();
+                return;
+            }
+            boolean playing = false;
+            while (!Thread.currentThread().isInterrupted()) {
+                Character digit = queue.poll(playing ? IDLE_PAUSE_MS : IDLE_RELEASE_MS, TimeUnit.MILLISECONDS);
+                if (digit == null) {
+                    if (!playing) break;
+                    track.pause();
+                    playing = false;
+                    continue;
+                }
+                if (!playing) {
+                    track.play();
+                    playing = true;
+                }
+                track.write(TABLES[indexOf(digit)], 0, SAMPLES_PER_DIGIT);
+                playedCount.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            // Released.
+        } finally {
+            track.release();
+            synchronized (this) {
+                if (thread == Thread.currentThread()) {
+                    // Let the next press start over, e.g. after the track failed to initialize.
+                    thread = null;
+                    // A press queued while going idle found this thread still set, so start
+                    // another for it.
+                    if (!queue.isEmpty()) {
+                        startThread();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.clinix.call_service;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.FlutterInjector;
+import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.embedding.engine.FlutterEngineCache;
+import io.flutter.embedding.engine.loader.FlutterLoader;
+
+/**
+ * Creates the background {@link FlutterEngine} ahead of the first call. The Flutter native
+ * library and assets are loaded asynchronously; only the engine construction itself runs on the
+ * main thread, once everything else is ready.
+ *
+ * <p>Apps can call {@link #warmUp} from {@code Application.onCreate}, either immediately or once
+ * the main thread goes idle. {@link CallService} uses {@link #acquire} so that a cold start does
+ * not block {@code onCreate} while the engine boots.
+ */
+public class FlutterEngineWarmer {
+    private static final String TAG = "CliniX:EngineWarmer";
+    public interface Callback {
+        void onEngineReady(FlutterEngine engine);
+    }
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Accessed on the main thread only.
+    private static final List<Callback> callbacks = new ArrayList<>();
+    private static boolean warming;
+    private static long warmUpStartNanos;
+    private static volatile long warmUpTimeMs = -1;
+    private static volatile long lastAcquireWaitMs = -1;
+    private static volatile boolean lastAcquireWarm;
+
+    /**
+     * Starts creating the engine from any thread.
+     *
+     * @param whenIdle wait until the main thread has no pending messages before starting.
+     */
+    public static void warmUp(Context context, final boolean whenIdle) {
+        final Context appContext = context.getApplicationContext();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!whenIdle) {
+                    start(appContext);
+                    return;
+                }
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                    @Override
+                    public boolean queueIdle() {
+                        start(appContext);
+                        return false;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Delivers the engine to {@code callback}, synchronously if it is already warm. Must be called
+     * on the main thread.
+     */
+    public static void acquire(Context context, final Callback callback) {
+        FlutterEngine engine = FlutterEngineCache.getInstance().get(CallServicePlugin.flutterEngineId);
+        if (engine != null) {
+            lastAcquireWarm = true;
+            lastAcquireWaitMs = 0;
+            callback.onEngineReady(engine);
+            return;
+        }
+        final long acquireStartNanos = System.nanoTime();
+        lastAcquireWarm = false;
+        callbacks.add(new Callback() {
+            @Override
+            public void onEngineReady(FlutterEngine engine) {
+                lastAcquireWaitMs = (System.nanoTime() - acquireStartNanos) / 1000000;
+                callback.onEngineReady(engine);
+            }
+        });
+        start(context.getApplicationContext());
+    }
+
+    public static boolean isReady() {
+        return FlutterEngineCache.getInstance().get(CallServicePlugin.flutterEngineId) != null;
+    }
+
+    /** Milliseconds from the start of the last warm-up until the engine was running, or -1. */
+    public static long getWarmUpTimeMs() {
+        return warmUpTimeMs;
+    }
+
+    public static Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<String, Object>();
+        status.put("ready", isReady());
+        status.put("warmUpTimeMs", warmUpTimeMs);
+        status.put("lastAcquireWarm", lastAcquireWarm);
+        status.put("lastAcquireWaitMs", lastAcquireWaitMs);
+        return status;
+    }
+
+    private static void start(final Context appContext) {
+        if (warming) return;
+        if (isReady()) {
+            deliver(FlutterEngineCache.getInstance().get(CallServicePlugin.flutterEngineId));
+            return;
+        }
+        warming = true;
+        warmUpStartNanos = System.nanoTime();
+        FlutterLoader loader = FlutterInjector.instance().flutterLoader();
+        loader.startInitialization(appContext);
+        loader.ensureInitializationCompleteAsync(appContext, null, mainHandler, new Runnable() {
+            @Override
+            public void run() {
+                FlutterEngine engine = CallServicePlugin.getFlutterEngine(appContext);
+                warmUpTimeMs = (System.nanoTime() - warmUpStartNanos) / 1000000;
+                warming = false;
+                Log.d(TAG, "Flutter engine warmed up in " + warmUpTimeMs + "ms");
+                deliver(engine);
+            }
+        });
+    }
+
+    private static void deliver(FlutterEngine engine) {
+        List<Callback> ready = new ArrayList<>(callbacks);
+        callbacks.clear();
+        for (Callback callback : ready) {
+            callback.onEngineReady(engine);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.clinix.call_service;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.media.AudioAttributes;
+import android.media.RingtoneManager;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+import androidx.core.app.NotificationCompat;
+
+/**
+ * Rings for incoming self-managed calls. Telecom shows no incoming-call UI for those, so when it
+ * asks for one the call is announced natively with a high-priority notification that plays the
+ * ringtone until it is answered or ended, and opens the app full screen on a locked device. None
+ * of this waits for the Flutter engine.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+class IncomingCallNotifier {
+    private static final String RINGING_CHANNEL = "RINGING CHANNEL";
+    private static final String RINGING_CHANNEL_NAME = "Incoming calls";
+    // Ring notifications are tagged with the call id, so concurrent incoming calls each get one.
+    private static final int RING_NOTIFICATION_ID = 1068;
+    private static final int REQUEST_FULL_SCREEN = 1101;
+
+    static void show(Context context, CallResourceRegistry resources, String callId, String callerName) {
+        Context appContext = context.getApplicationContext();
+        NotificationManager notificationManager = (NotificationManager)appContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        CallServiceConfig config = CallServiceConfigStore.peek(appContext);
+        createChannel(notificationManager);
+        PendingIntent fullScreenIntent = buildFullScreenIntent(appContext, config, callId);
+        Notification notification = new NotificationCompat.Builder(appContext, RINGING_CHANNEL)
+                .setSmallIcon(resources.notificationIcon)
+                .setColor(config.notificationColor)
+                .setContentTitle(callerName)
+                .setContentText(RINGING_CHANNEL_NAME)
+                .setCategory(NotificationCompat.CATEGORY_CALL)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+                .setOngoing(true)
+                .setContentIntent(fullScreenIntent)
+                .setFullScreenIntent(fullScreenIntent, true)
+                .addAction(0, "Decline", buildActionIntent(appContext, CallButtonReceiver.ACTION_DECLINE, callId))
+                .addAction(0, "Answer", buildActionIntent(appContext, CallButtonReceiver.ACTION_ANSWER, callId))
+                .build();
+        // Keep ringing until the call is answered or ended, not just once.
+        notification.flags |= Notification.FLAG_INSISTENT;
+        notificationManager.notify(callId, RING_NOTIFICATION_ID, notification);
+    }
+
+    static void cancel(Context context, String callId) {
+        NotificationManager notificationManager = (NotificationManager)context.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.cancel(callId, RING_NOTIFICATION_ID);
+    }
+
+    private static void createChannel(NotificationManager notificationManager) {
+        if (notificationManager.getNotificationChannel(RINGING_CHANNEL) != null) return;
+        NotificationChannel channel = new NotificationChannel(RINGING_CHANNEL, RINGING_CHANNEL_NAME, NotificationManager.IMPORTANCE_HIGH);
+        channel.setSound(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE), new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_NOTIFICATION_RINGTONE)
+                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                .build());
+        channel.enableVibration(true);
+        channel.setLockscreenVisibility(Notification.VISIBILITY_PUBLIC);
+        notificationManager.createNotificationChannel(channel);
+    }
+
+    private static PendingIntent buildFullScreenIntent(Context context, CallServiceConfig config, String callId) {
+        Intent intent;
+        if (config.activityClassName != null) {
+            intent = new Intent((String)null);
+            intent.setComponent(new ComponentName(context, config.activityClassName));
+        } else {
+            intent = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
+            if (intent == null) return null;
+        }
+        intent.setAction(Constants.ACTION_WAKE_APP);
+        intent.putExtra(Constants.EXTRA_CALL_UUID, callId);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_NO_USER_ACTION);
+        return PendingIntent.getActivity(context, REQUEST_FULL_SCREEN, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    private static PendingIntent buildActionIntent(Context context, String action, String callId) {
+        Intent intent = new Intent(context, CallButtonReceiver.class);
+        intent.setAction(action);
+        intent.putExtra(Constants.EXTRA_CALL_UUID, callId);
+        // One request code per call and action, so the extras of one call never replace another's.
+        int requestCode = 31 * callId.hashCode() + action.hashCode();
+        return PendingIntent.getBroadcast(context, requestCode, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+}
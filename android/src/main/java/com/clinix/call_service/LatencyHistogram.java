@@ -0,0 +1,93 @@
+package com.clinix.call_service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram. Recording is lock-free and allocates nothing, so it can be used
+ * on the call path from any thread. The default buckets suit channel and IPC latencies; phase and
+ * call durations use {@link #DURATION_BOUNDS_US}.
+ */
+public class LatencyHistogram {
+    /** Upper bounds of the buckets in microseconds; the last bucket collects everything above. */
+    public static final long[] BUCKET_BOUNDS_US = {
+            100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000, 2500000, 5000000
+    };
+    /** Bucket bounds from one second to two hours, for call phases and whole calls. */
+    public static final long[] DURATION_BOUNDS_US = {
+            1000000, 2000000, 5000000, 10000000, 20000000, 30000000,
+            60000000, 120000000, 300000000, 600000000, 1200000000, 1800000000,
+            3600000000L, 7200000000L
+    };
+
+    private final long[] boundsUs;
+    private final int count;
+    private final int sum;
+    private final int max;
+
+    // Buckets followed by count, sum and max, all in one array so a record touches one object.
+    private final AtomicLongArray values;
+
+    public LatencyHistogram() {
+        this(BUCKET_BOUNDS_US);
+    }
+
+    /** @param boundsUs ascending upper bounds of the buckets in microseconds, not copied */
+    public LatencyHistogram(long[] boundsUs) {
+        this.boundsUs = boundsUs;
+        count = boundsUs.length + 1;
+        sum = count + 1;
+        max = count + 2;
+        values = new AtomicLongArray(boundsUs.length + 4);
+    }
+
+    public void recordNanos(long nanos) {
+        if (nanos < 0) return;
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < boundsUs.length && micros > boundsUs[bucket]) {
+            bucket++;
+        }
+        values.incrementAndGet(bucket);
+        values.incrementAndGet(count);
+        values.addAndGet(sum, micros);
+        long currentMax = values.get(max);
+        while (micros > currentMax && !values.compareAndSet(max, currentMax, micros)) {
+            currentMax = values.get(max);
+        }
+    }
+
+    public long getCount() {
+        return values.get(count);
+    }
+
+    public void reset() {
+        for (int i = 0; i < values.length(); i++) {
+            values.set(i, 0);
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        List<Long> buckets = new ArrayList<Long>(boundsUs.length + 1);
+        for (int i = 0; i <= boundsUs.length; i++) {
+            buckets.add(values.get(i));
+        }
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("count", values.get(count));
+        map.put("sumUs", values.get(sum));
+        map.put("maxUs", values.get(max));
+        map.put("buckets", buckets);
+        if (boundsUs != BUCKET_BOUNDS_US) {
+            List<Long> bounds = new ArrayList<Long>(boundsUs.length);
+            for (long bound : boundsUs) {
+                bounds.add(bound);
+            }
+            map.put("bucketBoundsUs", bounds);
+        }
+        return map;
+    }
+}
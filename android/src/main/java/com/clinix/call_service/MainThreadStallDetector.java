@@ -0,0 +1,133 @@
+package com.clinix.call_service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports when the main looper is blocked for longer than a threshold while calls are active. A
+ * watchdog on a thread of its own posts a tick to the main thread and captures the main thread's
+ * stack if the tick has not run within the threshold. Call-path tasks posted through
+ * {@link CallWorker#runOnMain} are also timed individually so a slow one is reported by name.
+ *
+ * <p>The watchdog wakes up every half threshold, so it should only run while a call is in the
+ * foreground; {@link CallService} starts and stops it with foreground mode.
+ */
+public class MainThreadStallDetector {
+    private static final String TAG = "CliniX:StallDetector";
+    public static final long DEFAULT_THRESHOLD_MS = 100;
+    private static final int MAX_STACK_FRAMES = 12;
+
+    private final Handler mainHandler;
+    private final Handler watchdogHandler;
+    private final LatencyHistogram stallDurations = new LatencyHistogram();
+    private final AtomicLong stallCount = new AtomicLong();
+    private final AtomicLong taskStallCount = new AtomicLong();
+    private volatile long thresholdMs;
+    private volatile boolean running;
+    private volatile Map<String, Object> lastStall;
+    // Uptime at which the pending tick was posted, or -1 if none is pending.
+    private volatile long tickPostedAt = -1;
+    // Watchdog thread only.
+    private boolean stallReported;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            long blockedMs = SystemClock.uptimeMillis() - tickPostedAt;
+            tickPostedAt = -1;
+            if (blockedMs >= thresholdMs) {
+                stallDurations.recordNanos(blockedMs * 1000000L);
+            }
+        }
+    };
+
+    private final Runnable check = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) return;
+            long now = SystemClock.uptimeMillis();
+            long postedAt = tickPostedAt;
+            if (postedAt < 0) {
+                stallReported = false;
+                tickPostedAt = now;
+                mainHandler.post(tick);
+            } else if (!stallReported && now - postedAt >= thresholdMs) {
+                stallReported = true;
+                stallCount.incrementAndGet();
+                report("main looper", now - postedAt, Looper.getMainLooper().getThread().getStackTrace());
+            }
+            watchdogHandler.postDelayed(this, Math.max(1, thresholdMs / 2));
+        }
+    };
+
+    public MainThreadStallDetector(Handler mainHandler, Handler watchdogHandler, long thresholdMs) {
+        this.mainHandler = mainHandler;
+        this.watchdogHandler = watchdogHandler;
+        this.thresholdMs = thresholdMs;
+    }
+
+    public void setThresholdMs(long thresholdMs) {
+        this.thresholdMs = thresholdMs;
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+        watchdogHandler.removeCallbacks(check);
+        watchdogHandler.post(check);
+    }
+
+    public void stop() {
+        running = false;
+        watchdogHandler.removeCallbacks(check);
+        mainHandler.removeCallbacks(tick);
+        tickPostedAt = -1;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Called on the main thread after a call-path task has run. */
+    void onMainTaskFinished(String name, long durationMs) {
+        if (durationMs < thresholdMs) return;
+        taskStallCount.incrementAndGet();
+        report(name, durationMs, null);
+    }
+
+    private void report(String source, long durationMs, StackTraceElement[] stack) {
+        Map<String, Object> stall = new HashMap<String, Object>();
+        stall.put("source", source);
+        stall.put("durationMs", durationMs);
+        stall.put("atMs", SystemClock.elapsedRealtime());
+        if (stack != null) {
+            List<String> frames = new ArrayList<String>();
+            for (int i = 0; i < stack.length && i < MAX_STACK_FRAMES; i++) {
+                frames.add(stack[i].toString());
+            }
+            stall.put("stack", frames);
+        }
+        lastStall = stall;
+        Log.w(TAG, "Main thread stalled for " + durationMs + "ms by " + source
+                + (stack != null && stack.length > 0 ? " at " + stack[0] : ""));
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("thresholdMs", thresholdMs);
+        map.put("running", running);
+        map.put("stalls", stallCount.get());
+        map.put("taskStalls", taskStallCount.get());
+        map.put("durations", stallDurations.toMap());
+        map.put("last", lastStall);
+        return map;
+    }
+}
@@ -0,0 +1,141 @@
+package com.clinix.call_service;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Posts notifications through a token bucket so the app stays under the system's per-app
+ * notification rate limit, above which updates are silently dropped. Posts over the limit are
+ * deferred, a newer post for the same id replaces the deferred one, and a trailing flush posts
+ * whatever is left as tokens come back, so the latest content of every notification is shown.
+ *
+ * <p>Must only be used from the thread of the given {@link Handler}.
+ */
+public class NotificationPoster {
+    // The system allows about 5 enqueues per second per app on current releases, 10 on older ones.
+    public static final int DEFAULT_POSTS_PER_SECOND = 5;
+    public static final int DEFAULT_BURST = 5;
+
+    private final Handler handler;
+    private final NotificationManager notificationManager;
+    private final long refillIntervalMs;
+    private final int capacity;
+    private int tokens;
+    private long lastRefillAt;
+    // Deferred notifications by id, oldest first.
+    private final LinkedHashMap<Integer, Notification> pending = new LinkedHashMap<>();
+    private long postedCount;
+    private long deferredCount;
+    private long mergedCount;
+    private long flushedCount;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public NotificationPoster(Handler handler, NotificationManager notificationManager) {
+        this(handler, notificationManager, DEFAULT_POSTS_PER_SECOND, DEFAULT_BURST);
+    }
+
+    public NotificationPoster(Handler handler, NotificationManager notificationManager, int postsPerSecond, int burst) {
+        this.handler = handler;
+        this.notificationManager = notificationManager;
+        this.refillIntervalMs = 1000 / postsPerSecond;
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefillAt = SystemClock.uptimeMillis();
+    }
+
+    public void post(int id, Notification notification) {
+        refill(SystemClock.uptimeMillis());
+        if (tokens > 0 && !pending.containsKey(id)) {
+            tokens--;
+            postedCount++;
+            notificationManager.notify(id, notification);
+            return;
+        }
+        deferredCount++;
+        if (pending.put(id, notification) != null) {
+            mergedCount++;
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Accounts for a notification the system posted on our behalf, e.g. by {@code startForeground},
+     * superseding any deferred post for the same id.
+     */
+    public void onPostedElsewhere(int id) {
+        refill(SystemClock.uptimeMillis());
+        if (tokens > 0) tokens--;
+        pending.remove(id);
+    }
+
+    /** Drops a deferred post for the id without cancelling what is already shown. */
+    public void discard(int id) {
+        pending.remove(id);
+    }
+
+    public void cancel(int id) {
+        pending.remove(id);
+        notificationManager.cancel(id);
+    }
+
+    /** Drops every deferred post. */
+    public void clear() {
+        pending.clear();
+        handler.removeCallbacks(flushRunnable);
+    }
+
+    private void flush() {
+        refill(SystemClock.uptimeMillis());
+        for (Iterator<Map.Entry<Integer, Notification>> it = pending.entrySet().iterator(); it.hasNext() && tokens > 0;) {
+            Map.Entry<Integer, Notification> entry = it.next();
+            it.remove();
+            tokens--;
+            postedCount++;
+            flushedCount++;
+            notificationManager.notify(entry.getKey(), entry.getValue());
+        }
+        if (!pending.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        handler.removeCallbacks(flushRunnable);
+        handler.postAtTime(flushRunnable, lastRefillAt + refillIntervalMs);
+    }
+
+    private void refill(long now) {
+        long refills = (now - lastRefillAt) / refillIntervalMs;
+        if (refills <= 0) return;
+        if (tokens + refills >= capacity) {
+            tokens = capacity;
+            lastRefillAt = now;
+        } else {
+            tokens += (int)refills;
+            lastRefillAt += refills * refillIntervalMs;
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("posted", postedCount);
+        map.put("deferred", deferredCount);
+        map.put("merged", mergedCount);
+        map.put("flushed", flushedCount);
+        map.put("pending", pending.size());
+        return map;
+    }
+}
@@ -3,6 +3,7 @@ package com.clinix.call_service;
 import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentTransaction;
+import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Build.VERSION_CODES;
@@ -13,8 +14,24 @@ import android.os.ResultReceiver;
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** Helper module for dealing with dynamic permissions, introduced in Android M (API level 23). */
+/**
+ * Helper module for dealing with dynamic permissions, introduced in Android M (API level 23).
+ *
+ * <p>Grant states are cached until an activity resumes or a request completes, since either may
+ * follow a change in the settings. Only one system dialog is shown at a time: a request made while
+ * one is in flight joins it if it asks for nothing more, otherwise it is merged into the single
+ * request made once the current one finishes. Results are fanned out to every caller. If the
+ * activity goes away before the user answers, the callers get the current grant states instead of
+ * waiting forever. Requests must be made on the main thread.
+ */
 public class PermissionUtils {
     /**
      * Constants for internal fields in the <tt>Bundle</tt> exchanged between the activity requesting
@@ -24,10 +41,49 @@ public class PermissionUtils {
 
     private static final String PERMISSIONS = "PERMISSION";
     private static final String REQUEST_CODE = "REQUEST_CODE";
-    private static final String RESULT_RECEIVER = "RESULT_RECEIVER";
 
     /** Incrementing counter for permission requests. Each request must have a unique numeric code. */
-    private static int requestCode;
+    private static final AtomicInteger requestCode = new AtomicInteger();
+
+    private static final ConcurrentHashMap<String, Integer> grantCache = new ConcurrentHashMap<>();
+    private static final AtomicLong fragmentCommitCount = new AtomicLong();
+    private static final AtomicLong mergedRequestCount = new AtomicLong();
+
+    private static class Waiter {
+        final String[] permissions;
+        final ResultReceiver resultReceiver;
+
+        Waiter(String[] permissions, ResultReceiver resultReceiver) {
+            this.permissions = permissions;
+            this.resultReceiver = resultReceiver;
+        }
+    }
+
+    /** The request whose dialog is showing, and the callers waiting for it. Main thread only. */
+    private static class PendingRequest {
+        int requestCode;
+        final LinkedHashSet<String> permissions = new LinkedHashSet<>();
+        final List<Waiter> waiters = new ArrayList<>();
+    }
+
+    private static PendingRequest current;
+    // Callers that asked for more than the current request covers, merged into the next request.
+    private static PendingRequest next;
+
+    /** Forgets cached grant states, e.g. because the user may have been to the settings. */
+    public static void invalidateGrantCache() {
+        grantCache.clear();
+    }
+
+    public static int checkPermission(Context context, String permission) {
+        // No need to ask for permission on pre-Marshmallow
+        if (Build.VERSION.SDK_INT < VERSION_CODES.M) return PackageManager.PERMISSION_GRANTED;
+        Integer cached = grantCache.get(permission);
+        if (cached != null) return cached;
+        int grantResult = context.checkSelfPermission(permission);
+        grantCache.put(permission, grantResult);
+        return grantResult;
+    }
 
     private static void requestPermissions(
             Activity activity, String[] permissions, ResultReceiver resultReceiver) {
@@ -38,12 +94,7 @@ public class PermissionUtils {
         boolean permissionsGranted = true;
 
         for (int i = 0; i < size; ++i) {
-            int grantResult;
-            // No need to ask for permission on pre-Marshmallow
-            if (Build.VERSION.SDK_INT < VERSION_CODES.M)
-                grantResult = PackageManager.PERMISSION_GRANTED;
-            else grantResult = activity.checkSelfPermission(permissions[i]);
-
+            int grantResult = checkPermission(activity, permissions[i]);
             grantResults[i] = grantResult;
             if (grantResult != PackageManager.PERMISSION_GRANTED) {
                 permissionsGranted = false;
@@ -54,8 +105,6 @@ public class PermissionUtils {
         // there is nothing to ask the user about. On the other hand, if there
         // is no Activity or the runtime permissions are not supported, there is
         // no way to ask the user to grant us the denied permissions.
-        int requestCode = ++PermissionUtils.requestCode;
-
         if (permissionsGranted
                 // Here we test for the target SDK version with which *the app*
                 // was compiled. If we use Build.VERSION.SDK_INT that would give
@@ -65,14 +114,73 @@ public class PermissionUtils {
                 // Android version on the device.
                 || Build.VERSION.SDK_INT < VERSION_CODES.M
                 || activity.getApplicationInfo().targetSdkVersion < VERSION_CODES.M) {
-            send(resultReceiver, requestCode, permissions, grantResults);
+            send(resultReceiver, requestCode.incrementAndGet(), permissions, grantResults);
+            return;
+        }
+
+        Waiter waiter = new Waiter(permissions, resultReceiver);
+        if (current != null) {
+            mergedRequestCount.incrementAndGet();
+            if (covers(current, permissions)) {
+                current.waiters.add(waiter);
+            } else {
+                if (next == null) {
+                    next = new PendingRequest();
+                }
+                addAll(next, permissions);
+                next.waiters.add(waiter);
+            }
             return;
         }
 
+        PendingRequest request = new PendingRequest();
+        addAll(request, permissions);
+        request.waiters.add(waiter);
+        start(activity, request);
+    }
+
+    public static void requestPermissions(
+            final Activity activity, final String[] permissions, final Callback callback) {
+        requestPermissions(
+                activity,
+                permissions,
+                new ResultReceiver(new Handler(Looper.getMainLooper())) {
+                    @Override
+                    protected void onReceiveResult(int resultCode, Bundle resultData) {
+                        callback.invoke(
+                                resultData.getStringArray(PERMISSIONS), resultData.getIntArray(GRANT_RESULTS));
+                    }
+                });
+    }
+
+    public static Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("cachedGrants", grantCache.size());
+        map.put("fragmentCommits", fragmentCommitCount.get());
+        map.put("mergedRequests", mergedRequestCount.get());
+        return map;
+    }
+
+    private static boolean covers(PendingRequest request, String[] permissions) {
+        for (String permission : permissions) {
+            if (!request.permissions.contains(permission)) return false;
+        }
+        return true;
+    }
+
+    private static void addAll(PendingRequest request, String[] permissions) {
+        for (String permission : permissions) {
+            request.permissions.add(permission);
+        }
+    }
+
+    private static void start(Activity activity, PendingRequest request) {
+        request.requestCode = requestCode.incrementAndGet();
+        current = request;
+
         Bundle args = new Bundle();
-        args.putInt(REQUEST_CODE, requestCode);
-        args.putParcelable(RESULT_RECEIVER, resultReceiver);
-        args.putStringArray(PERMISSIONS, permissions);
+        args.putInt(REQUEST_CODE, request.requestCode);
+        args.putStringArray(PERMISSIONS, request.permissions.toArray(new String[request.permissions.size()]));
 
         RequestPermissionsFragment fragment = new RequestPermissionsFragment();
         fragment.setArguments(args);
@@ -81,28 +189,51 @@ public class PermissionUtils {
                 activity
                         .getFragmentManager()
                         .beginTransaction()
-                        .add(fragment, fragment.getClass().getName() + "-" + requestCode);
+                        .add(fragment, fragment.getClass().getName() + "-" + request.requestCode);
 
         try {
             transaction.commit();
+            fragmentCommitCount.incrementAndGet();
         } catch (IllegalStateException ise) {
             // Context is a Plugin, just send result back.
-            send(resultReceiver, requestCode, permissions, grantResults);
+            finish(activity, request.requestCode);
         }
     }
 
-    public static void requestPermissions(
-            final Activity activity, final String[] permissions, final Callback callback) {
-        requestPermissions(
-                activity,
-                permissions,
-                new ResultReceiver(new Handler(Looper.getMainLooper())) {
-                    @Override
-                    protected void onReceiveResult(int resultCode, Bundle resultData) {
-                        callback.invoke(
-                                resultData.getStringArray(PERMISSIONS), resultData.getIntArray(GRANT_RESULTS));
-                    }
-                });
+    /** Sends the result of the request to everyone waiting for it, then starts the next one. */
+    private static void finish(Activity activity, int requestCode) {
+        PendingRequest request = current;
+        if (request == null || request.requestCode != requestCode) return;
+        current = null;
+        invalidateGrantCache();
+        sendAll(activity, request);
+        PendingRequest pending = next;
+        next = null;
+        if (pending != null) {
+            if (activity != null && !activity.isFinishing()) {
+                start(activity, pending);
+            } else if (activity != null) {
+                // The activity cannot show another dialog, so answer with what is granted now.
+                pending.requestCode = requestCode;
+                sendAll(activity, pending);
+            } else {
+                // Without an activity nobody can be asked, so just answer.
+                pending.requestCode = requestCode;
+                sendAll(null, pending);
+            }
+        }
+    }
+
+    private static void sendAll(Context context, PendingRequest request) {
+        for (Waiter waiter : request.waiters) {
+            int[] grantResults = new int[waiter.permissions.length];
+            for (int i = 0; i < grantResults.length; ++i) {
+                grantResults[i] = context != null
+                        ? checkPermission(context, waiter.permissions[i])
+                        : PackageManager.PERMISSION_DENIED;
+            }
+            send(waiter.resultReceiver, request.requestCode, waiter.permissions, grantResults);
+        }
     }
 
     private static void send(
@@ -121,8 +252,8 @@ public class PermissionUtils {
     /**
      * Helper activity for requesting permissions. Android only allows requesting permissions from an
      * activity and the result is reported in the <tt>onRequestPermissionsResult</tt> method. Since
-     * this package is a library we create an auxiliary activity and communicate back the results
-     * using a <tt>ResultReceiver</tt>.
+     * this package is a library we create an auxiliary activity and report the results back to
+     * {@link PermissionUtils}, which fans them out to the callers.
      */
     @RequiresApi(api = VERSION_CODES.M)
     public static class RequestPermissionsFragment extends Fragment {
@@ -134,19 +265,11 @@ public class PermissionUtils {
             String[] permissions = args.getStringArray(PERMISSIONS);
             int size = permissions.length;
             Activity activity = getActivity();
-            int[] grantResults = new int[size];
             ArrayList<String> deniedPermissions = new ArrayList<>();
 
             for (int i = 0; i < size; ++i) {
                 String permission = permissions[i];
-                int grantResult;
-                // No need to ask for permission on pre-Marshmallow
-                if (Build.VERSION.SDK_INT < VERSION_CODES.M)
-                    grantResult = PackageManager.PERMISSION_GRANTED;
-                else grantResult = activity.checkSelfPermission(permission);
-
-                grantResults[i] = grantResult;
-                if (grantResult != PackageManager.PERMISSION_GRANTED) {
+                if (checkPermission(activity, permission) != PackageManager.PERMISSION_GRANTED) {
                     deniedPermissions.add(permission);
                 }
             }
@@ -157,7 +280,7 @@ public class PermissionUtils {
                 // All permissions have already been granted or we cannot ask
                 // the user about the denied ones.
                 finish();
-                send((ResultReceiver) args.getParcelable(RESULT_RECEIVER), requestCode, permissions, grantResults);
+                PermissionUtils.finish(activity, requestCode);
             } else {
                 // Ask the user about the denied permissions.
                 requestPermissions(
@@ -181,6 +304,7 @@ public class PermissionUtils {
             if (args.getInt(REQUEST_CODE, 0) != requestCode) {
                 return;
             }
+            invalidateGrantCache();
 
             // XXX The super's documentation says: It is possible that the
             // permissions request interaction with the user is interrupted. In
@@ -189,11 +313,9 @@ public class PermissionUtils {
             if (permissions.length == 0 || grantResults.length == 0) {
                 // The getUserMedia algorithm does not define a way to cancel
                 // the invocation so we have to redo the permission request.
-                finish();
-                PermissionUtils.requestPermissions(
-                        getActivity(),
-                        args.getStringArray(PERMISSIONS),
-                        (ResultReceiver) args.getParcelable(RESULT_RECEIVER));
+                // The request stays current, so callers arriving meanwhile
+                // still join it.
+                checkSelfPermissions(/* requestPermissions */ true);
             } else {
                 // We did not ask for all requested permissions, just the denied
                 // ones. But when we send the result, we have to answer about
@@ -208,6 +330,18 @@ public class PermissionUtils {
 
             checkSelfPermissions(/* requestPermissions */ true);
         }
+
+        @Override
+        public void onDestroy() {
+            super.onDestroy();
+
+            // After a configuration change the recreated fragment picks the request up again.
+            // Otherwise nobody will report back, and the request would stay current forever with
+            // every later one queued behind it. This does nothing if the request already finished.
+            Activity activity = getActivity();
+            if (activity == null || !activity.isChangingConfigurations()) {
+                PermissionUtils.finish(activity, getArguments().getInt(REQUEST_CODE, 0));
+            }
+        }
     }
 }
-
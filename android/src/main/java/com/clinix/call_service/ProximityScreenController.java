@@ -0,0 +1,145 @@
+package com.clinix.call_service;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns the screen off while the phone is held to the ear. The proximity sensor is only listened
+ * to while the call plays through the earpiece, and the screen-off wake lock is only held while
+ * something is near, so speaker and headset calls cost neither.
+ *
+ * <p>Sensor events are batched to cut CPU wake-ups. Near and far use different thresholds, and
+ * going far must last a moment before the screen comes back, so a sensor hovering around the
+ * threshold does not flicker the screen.
+ *
+ * <p>Must only be used from the thread of the given {@link Handler}.
+ */
+public class ProximityScreenController {
+    // Distances up to this many centimetres count as near.
+    private static final float SENSOR_SENSITIVITY = 4f;
+    private static final float HYSTERESIS_CM = 1f;
+    private static final int SAMPLING_PERIOD_US = 200 * 1000;
+    // Long enough to batch a few samples, short enough that the screen goes off as the phone reaches the ear.
+    private static final int MAX_REPORT_LATENCY_US = 200 * 1000;
+    private static final long FAR_DEBOUNCE_MS = 300;
+    private static final long MAX_SCREEN_OFF_MS = 4 * 60 * 60 * 1000L;
+
+    private final Handler handler;
+    private final SensorManager sensorManager;
+    private final Sensor sensor;
+    private final PowerManager.WakeLock wakeLock;
+    private final float nearThreshold;
+    private final float farThreshold;
+    private boolean enabled;
+    private boolean near;
+    private long enabledAt;
+    private long enabledMs;
+    private long eventCount;
+    private long nearCount;
+    private long farCount;
+    private long registrationCount;
+
+    private final SensorEventListener sensorListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            onDistance(event.values[0]);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    private final Runnable farRunnable = new Runnable() {
+        @Override
+        public void run() {
+            setNear(false);
+        }
+    };
+
+    public ProximityScreenController(Handler handler, SensorManager sensorManager, PowerManager powerManager) {
+        this.handler = handler;
+        this.sensorManager = sensorManager;
+        // Prefer the non-wake-up sensor, whose batched events wait for the CPU instead of waking it.
+        Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY, false);
+        this.sensor = sensor != null ? sensor : sensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);
+        if (this.sensor != null && powerManager.isWakeLockLevelSupported(PowerManager.PROXIMITY_SCREEN_OFF_WAKE_LOCK)) {
+            wakeLock = powerManager.newWakeLock(PowerManager.PROXIMITY_SCREEN_OFF_WAKE_LOCK, ProximityScreenController.class.getName());
+            wakeLock.setReferenceCounted(false);
+        } else {
+            wakeLock = null;
+        }
+        // Binary sensors report 0 or their maximum range, so the thresholds must fit within it.
+        float maxRange = this.sensor != null ? this.sensor.getMaximumRange() : SENSOR_SENSITIVITY;
+        nearThreshold = Math.min(SENSOR_SENSITIVITY, maxRange);
+        farThreshold = Math.min(nearThreshold + HYSTERESIS_CM, maxRange);
+    }
+
+    /** Listens to the sensor while the call plays through the earpiece. */
+    public void setEarpieceRoute(boolean earpiece) {
+        if (wakeLock == null || earpiece == enabled) return;
+        enabled = earpiece;
+        if (earpiece) {
+            enabledAt = SystemClock.elapsedRealtime();
+            registrationCount++;
+            sensorManager.registerListener(sensorListener, sensor, SAMPLING_PERIOD_US, MAX_REPORT_LATENCY_US, handler);
+        } else {
+            enabledMs += SystemClock.elapsedRealtime() - enabledAt;
+            sensorManager.unregisterListener(sensorListener);
+            handler.removeCallbacks(farRunnable);
+            setNear(false);
+        }
+    }
+
+    public void release() {
+        setEarpieceRoute(false);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("available", wakeLock != null);
+        map.put("enabled", enabled);
+        map.put("near", near);
+        map.put("events", eventCount);
+        map.put("nearTransitions", nearCount);
+        map.put("farTransitions", farCount);
+        map.put("registrations", registrationCount);
+        map.put("enabledMs", enabledMs + (enabled ? SystemClock.elapsedRealtime() - enabledAt : 0));
+        return map;
+    }
+
+    private void onDistance(float distance) {
+        eventCount++;
+        if (!enabled) return;
+        if (distance < nearThreshold) {
+            handler.removeCallbacks(farRunnable);
+            setNear(true);
+        } else if (distance >= farThreshold && near) {
+            handler.removeCallbacks(farRunnable);
+            handler.postDelayed(farRunnable, FAR_DEBOUNCE_MS);
+        }
+    }
+
+    private void setNear(boolean near) {
+        if (near == this.near) return;
+        this.near = near;
+        if (near) {
+            nearCount++;
+            wakeLock.acquire(MAX_SCREEN_OFF_MS);
+        } else {
+            farCount++;
+            if (wakeLock.isHeld()) {
+                // Keep the screen off until the user moves away from the proximity sensor.
+                wakeLock.release(PowerManager.RELEASE_FLAG_WAIT_FOR_NO_PROXIMITY);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.clinix.call_service;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks whether a callee's endpoint accepts connections before dialing, so the check needs no
+ * round-trip through Dart. A target is a {@code host:port} string and is reachable if a TCP
+ * connection to it opens within the timeout.
+ *
+ * <p>Probes run in parallel on a small bounded pool. Results are cached per target, unreachable
+ * ones for a shorter time so a callee coming back online is noticed soon. Concurrent checks of the
+ * same target share one probe. Callbacks run on the thread of the given {@link Handler}.
+ */
+public class ReachabilityProbe {
+    public interface Callback {
+        void onResult(String target, boolean reachable, boolean cached);
+    }
+
+    public static final int DEFAULT_TIMEOUT_MS = 2000;
+    public static final long DEFAULT_TTL_MS = 30 * 1000L;
+    public static final long DEFAULT_NEGATIVE_TTL_MS = 5 * 1000L;
+    private static final int MAX_THREADS = 4;
+    private static final int MAX_QUEUED_PROBES = 16;
+
+    private static class Result {
+        final boolean reachable;
+        final long expiresAt;
+
+        Result(boolean reachable, long expiresAt) {
+            this.reachable = reachable;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Handler handler;
+    private final int timeoutMs;
+    private final long ttlMs;
+    private final long negativeTtlMs;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, Result> cache = new ConcurrentHashMap<>();
+    // Callbacks waiting for a probe in flight, by target. Guarded by itself.
+    private final HashMap<String, List<Callback>> inFlight = new HashMap<>();
+    private final AtomicLong probeCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong joinedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final LatencyHistogram probeDurations = new LatencyHistogram();
+
+    public ReachabilityProbe(Handler handler) {
+        this(handler, DEFAULT_TIMEOUT_MS, DEFAULT_TTL_MS, DEFAULT_NEGATIVE_TTL_MS);
+    }
+
+    public ReachabilityProbe(Handler handler, int timeoutMs, long ttlMs, long negativeTtlMs) {
+        this.handler = handler;
+        this.timeoutMs = timeoutMs;
+        this.ttlMs = ttlMs;
+        this.negativeTtlMs = negativeTtlMs;
+        executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED_PROBES),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "reachability");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Reports whether {@code target} is reachable, from the cache if the last result is fresh. */
+    public void check(final String target, Callback callback) {
+        Result result = cache.get(target);
+        if (result != null && result.expiresAt > SystemClock.elapsedRealtime()) {
+            hitCount.incrementAndGet();
+            deliver(callback, target, result.reachable, true);
+            return;
+        }
+        synchronized (inFlight) {
+            List<Callback> callbacks = inFlight.get(target);
+            if (callbacks != null) {
+                joinedCount.incrementAndGet();
+                callbacks.add(callback);
+                return;
+            }
+            callbacks = new ArrayList<>();
+            callbacks.add(callback);
+            inFlight.put(target, callbacks);
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    complete(target, probe(target));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Too many probes queued: answer unreachable, but do not cache it.
+            rejectedCount.incrementAndGet();
+            deliverAll(target, false);
+        }
+    }
+
+    /** Forgets the cached result for {@code target}, e.g. after a failed call. */
+    public void invalidate(String target) {
+        cache.remove(target);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        cache.clear();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("probes", probeCount.get());
+        map.put("hits", hitCount.get());
+        map.put("joined", joinedCount.get());
+        map.put("rejected", rejectedCount.get());
+        map.put("cached", cache.size());
+        map.put("durations", probeDurations.toMap());
+        return map;
+    }
+
+    private boolean probe(String target) {
+        probeCount.incrementAndGet();
+        long start = System.nanoTime();
+        int colon = target.lastIndexOf(':');
+        Socket socket = new Socket();
+        try {
+            String host = target.substring(0, colon);
+            int port = Integer.parseInt(target.substring(colon + 1));
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // Refused, timed out, unresolvable or not a host:port target.
+            return false;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+            probeDurations.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    private void complete(String target, boolean reachable) {
+        long ttl = reachable ? ttlMs : negativeTtlMs;
+        cache.put(target, new Result(reachable, SystemClock.elapsedRealtime() + ttl));
+        deliverAll(target, reachable);
+    }
+
+    private void deliverAll(String target, boolean reachable) {
+        List<Callback> callbacks;
+        synchronized (inFlight) {
+            callbacks = inFlight.remove(target);
+        }
+        if (callbacks == null) return;
+        for (Callback callback : callbacks) {
+            deliver(callback, target, reachable, false);
+        }
+    }
+
+    private void deliver(final Callback callback, final String target, final boolean reachable, final boolean cached) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(target, reachable, cached);
+            }
+        });
+    }
+}
@@ -0,0 +1,125 @@
+package com.clinix.call_service;
+
+import android.os.Handler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Merges bursts of state updates from Dart (e.g. loading, buffering, ready during call setup) so
+ * that only the last state of a burst reaches {@link Sink#apply}.
+ *
+ * <p>Updates that change {@code playing} or reach {@link CallProcessingState#idle} or
+ * {@link CallProcessingState#completed} start or stop foreground mode, so they are applied
+ * immediately together with whatever is pending. A superseded update is never applied after a
+ * newer one, so transitions keep their order.
+ *
+ * <p>Must only be used from the thread of the given {@link Handler}.
+ */
+public class StateUpdateCoalescer {
+    public interface Sink {
+        void apply(CallProcessingState processingState, boolean playing, Integer errorCode, String errorMessage);
+    }
+
+    /** Counters that can be shared by the coalescers of several calls. */
+    public static class Counters {
+        long submitted;
+        long merged;
+        long applied;
+
+        public long getSubmittedCount() {
+            return submitted;
+        }
+
+        public long getMergedCount() {
+            return merged;
+        }
+
+        public long getAppliedCount() {
+            return applied;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("submitted", submitted);
+            map.put("merged", merged);
+            map.put("applied", applied);
+            return map;
+        }
+    }
+
+    private final Handler handler;
+    private final Sink sink;
+    private final Counters counters;
+    private long windowMs;
+    private boolean pending;
+    private CallProcessingState pendingProcessingState;
+    private boolean pendingPlaying;
+    private Integer pendingErrorCode;
+    private String pendingErrorMessage;
+    private boolean appliedPlaying;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public StateUpdateCoalescer(Handler handler, Sink sink, long windowMs) {
+        this(handler, sink, windowMs, new Counters());
+    }
+
+    public StateUpdateCoalescer(Handler handler, Sink sink, long windowMs, Counters counters) {
+        this.handler = handler;
+        this.sink = sink;
+        this.windowMs = windowMs;
+        this.counters = counters;
+    }
+
+    public void setWindowMs(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    public void submit(CallProcessingState processingState, boolean playing, Integer errorCode, String errorMessage) {
+        counters.submitted++;
+        if (pending) {
+            counters.merged++;
+        }
+        boolean schedule = !pending;
+        pending = true;
+        pendingProcessingState = processingState;
+        pendingPlaying = playing;
+        pendingErrorCode = errorCode;
+        pendingErrorMessage = errorMessage;
+        if (windowMs <= 0 || playing != appliedPlaying || processingState == CallProcessingState.idle
+                || processingState == CallProcessingState.completed) {
+            flush();
+        } else if (schedule) {
+            handler.postDelayed(flushRunnable, windowMs);
+        }
+    }
+
+    /** Applies the pending update, if any, right away. */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        if (!pending) return;
+        pending = false;
+        appliedPlaying = pendingPlaying;
+        counters.applied++;
+        String errorMessage = pendingErrorMessage;
+        pendingErrorMessage = null;
+        sink.apply(pendingProcessingState, pendingPlaying, pendingErrorCode, errorMessage);
+    }
+
+    /** Drops the pending update without applying it. */
+    public void cancel() {
+        handler.removeCallbacks(flushRunnable);
+        pending = false;
+        pendingErrorMessage = null;
+    }
+
+    public Counters getCounters() {
+        return counters;
+    }
+}
@@ -0,0 +1,185 @@
+package com.clinix.call_service;
+
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the service's wake locks on behalf of reference-counted, time-bounded leases keyed by call
+ * id. The locks are held exactly while at least one lease is active, every lease expires after its
+ * maximum duration even if it is never released, and the time each call kept the device awake is
+ * accounted for.
+ */
+public class WakeLockLeaseManager {
+    private static final String TAG = "CliniX:WakeLockLeases";
+    private static final int MAX_RECENT_CALLS = 32;
+
+    private static class Lease {
+        int refCount;
+        long acquiredAt;
+        long expiresAt;
+    }
+
+    private final Handler handler;
+    private final PowerManager.WakeLock[] wakeLocks;
+    private final HashMap<String, Lease> leases = new HashMap<>();
+    // Held time per call id, for active and recently ended calls.
+    private final LinkedHashMap<String, Long> heldMsByCall = new LinkedHashMap<String, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_RECENT_CALLS;
+        }
+    };
+    private long heldSince = -1;
+    private long totalHeldMs;
+    private long expiredCount;
+
+    private final Runnable expiryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            expireLeases();
+        }
+    };
+
+    public WakeLockLeaseManager(Handler handler, PowerManager.WakeLock... wakeLocks) {
+        this.handler = handler;
+        this.wakeLocks = wakeLocks;
+        for (PowerManager.WakeLock wakeLock : wakeLocks) {
+            wakeLock.setReferenceCounted(false);
+        }
+    }
+
+    /** Adds a reference to the call's lease, extending it to at least {@code maxDurationMs}. */
+    public synchronized void acquire(String callId, long maxDurationMs) {
+        long now = SystemClock.elapsedRealtime();
+        Lease lease = leases.get(callId);
+        if (lease == null) {
+            lease = new Lease();
+            lease.acquiredAt = now;
+            leases.put(callId, lease);
+        }
+        lease.refCount++;
+        lease.expiresAt = Math.max(lease.expiresAt, now + maxDurationMs);
+        updateLocks(now);
+    }
+
+    /** Drops one reference to the call's lease. */
+    public synchronized void release(String callId) {
+        Lease lease = leases.get(callId);
+        if (lease == null) return;
+        if (--lease.refCount <= 0) {
+            endLease(callId, lease, SystemClock.elapsedRealtime());
+            leases.remove(callId);
+        }
+        updateLocks(SystemClock.elapsedRealtime());
+    }
+
+    /** Ends the call's lease regardless of its reference count. */
+    public synchronized void releaseAll(String callId) {
+        Lease lease = leases.remove(callId);
+        if (lease == null) return;
+        long now = SystemClock.elapsedRealtime();
+        endLease(callId, lease, now);
+        updateLocks(now);
+    }
+
+    public synchronized void releaseAll() {
+        long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            endLease(entry.getKey(), entry.getValue(), now);
+        }
+        leases.clear();
+        updateLocks(now);
+    }
+
+    public synchronized boolean isHeld() {
+        return heldSince >= 0;
+    }
+
+    /** Milliseconds the call has held a lease so far, including a lease still active. */
+    public synchronized long getHeldMs(String callId) {
+        Long held = heldMsByCall.get(callId);
+        long heldMs = held != null ? held : 0;
+        Lease lease = leases.get(callId);
+        if (lease != null) {
+            heldMs += SystemClock.elapsedRealtime() - lease.acquiredAt;
+        }
+        return heldMs;
+    }
+
+    public synchronized Map<String, Object> toMap() {
+        long now = SystemClock.elapsedRealtime();
+        Map<String, Object> calls = new HashMap<String, Object>();
+        for (String callId : heldMsByCall.keySet()) {
+            calls.put(callId, heldMsByCall.get(callId));
+        }
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            Long held = heldMsByCall.get(entry.getKey());
+            calls.put(entry.getKey(), (held != null ? held : 0) + now - entry.getValue().acquiredAt);
+        }
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("held", heldSince >= 0);
+        map.put("activeLeases", leases.size());
+        map.put("totalHeldMs", totalHeldMs + (heldSince >= 0 ? now - heldSince : 0));
+        map.put("expired", expiredCount);
+        map.put("calls", calls);
+        return map;
+    }
+
+    private void expireLeases() {
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            for (Iterator<Map.Entry<String, Lease>> it = leases.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Lease> entry = it.next();
+                if (entry.getValue().expiresAt <= now) {
+                    Log.w(TAG, "Wake lock lease for call " + entry.getKey() + " expired");
+                    endLease(entry.getKey(), entry.getValue(), now);
+                    expiredCount++;
+                    it.remove();
+                }
+            }
+            updateLocks(now);
+        }
+    }
+
+    private void endLease(String callId, Lease lease, long now) {
+        Long held = heldMsByCall.remove(callId);
+        heldMsByCall.put(callId, (held != null ? held : 0) + now - lease.acquiredAt);
+    }
+
+    private void updateLocks(long now) {
+        handler.removeCallbacks(expiryRunnable);
+        if (leases.isEmpty()) {
+            if (heldSince >= 0) {
+                totalHeldMs += now - heldSince;
+                heldSince = -1;
+            }
+            for (PowerManager.WakeLock wakeLock : wakeLocks) {
+                if (wakeLock.isHeld()) {
+                    wakeLock.release();
+                }
+            }
+            return;
+        }
+        long nextExpiry = Long.MAX_VALUE;
+        long latestExpiry = 0;
+        for (Lease lease : leases.values()) {
+            nextExpiry = Math.min(nextExpiry, lease.expiresAt);
+            latestExpiry = Math.max(latestExpiry, lease.expiresAt);
+        }
+        if (heldSince < 0) {
+            heldSince = now;
+        }
+        // The timeout is a safety net in case the process stops running the expiry callback.
+        for (PowerManager.WakeLock wakeLock : wakeLocks) {
+            wakeLock.acquire(latestExpiry - now);
+        }
+        handler.postDelayed(expiryRunnable, Math.max(0, nextExpiry - now));
+    }
+}
@@ -0,0 +1,145 @@
+package com.clinix.call_service;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class AudioSessionManagerTest {
+    private AudioManager audioManager;
+    private AudioSessionManager session;
+    private final List<Map<String, Object>> changes = new ArrayList<Map<String, Object>>();
+
+    @Before
+    public void setUp() {
+        audioManager = (AudioManager)RuntimeEnvironment.getApplication().getSystemService(Context.AUDIO_SERVICE);
+        session = new AudioSessionManager(new Handler(Looper.getMainLooper()), audioManager, new AudioSessionManager.Listener() {
+            @Override
+            public void onAudioSessionChanged(Map<String, Object> changes) {
+                AudioSessionManagerTest.this.changes.add(changes);
+            }
+        });
+    }
+
+    private long ipc() {
+        return (Long)session.toMap().get("ipc");
+    }
+
+    private static Map<String, Object> mapOf(Object... keysAndValues) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String)keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    @Test
+    public void startAndEndSession() {
+        session.startSession();
+        assertEquals(AudioManager.MODE_IN_COMMUNICATION, audioManager.getMode());
+        assertEquals(mapOf("active", true, "focus", true), changes.get(0));
+        assertTrue(session.isActive());
+
+        long ipc = ipc();
+        session.startSession();
+        assertEquals(ipc, ipc());
+        assertEquals(1, changes.size());
+
+        session.endSession();
+        assertEquals(AudioManager.MODE_NORMAL, audioManager.getMode());
+        assertEquals(mapOf("active", false, "focus", false), changes.get(1));
+        ipc = ipc();
+        session.endSession();
+        assertEquals(ipc, ipc());
+        assertEquals(2, changes.size());
+    }
+
+    @Test
+    public void stateRequestedBeforeStartIsAppliedOnStart() {
+        session.setMuted(true);
+        session.setSpeakerOn(true);
+        assertEquals(0, ipc());
+        assertFalse(audioManager.isMicrophoneMute());
+        assertEquals(mapOf("muted", true), changes.get(0));
+        session.startSession();
+        assertTrue(audioManager.isMicrophoneMute());
+        assertTrue(audioManager.isSpeakerphoneOn());
+    }
+
+    @Test
+    public void holdMutesWithoutForgettingMute() {
+        session.startSession();
+        session.setMuted(true);
+        long ipc = ipc();
+        session.setHeld(true);
+        // Already muted, so holding costs no IPC.
+        assertEquals(ipc, ipc());
+        assertEquals(mapOf("held", true), changes.get(changes.size() - 1));
+        session.setMuted(false);
+        assertTrue(audioManager.isMicrophoneMute());
+        session.setHeld(false);
+        assertFalse(audioManager.isMicrophoneMute());
+        assertEquals(mapOf("held", false), changes.get(changes.size() - 1));
+    }
+
+    @Test
+    public void redundantRequestsAreSkipped() {
+        session.startSession();
+        session.setSpeakerOn(true);
+        long ipc = ipc();
+        int changeCount = changes.size();
+        session.setSpeakerOn(true);
+        session.setMuted(false);
+        session.setHeld(false);
+        assertEquals(ipc, ipc());
+        assertEquals(changeCount, changes.size());
+        assertEquals(3L, session.toMap().get("skipped"));
+    }
+
+    @Test
+    public void endingForgetsCallState() {
+        session.startSession();
+        session.setMuted(true);
+        session.setSpeakerOn(true);
+        session.endSession();
+        assertFalse(audioManager.isMicrophoneMute());
+        assertFalse(audioManager.isSpeakerphoneOn());
+        assertEquals(mapOf("active", false, "focus", false, "muted", false, "speakerOn", false),
+                changes.get(changes.size() - 1));
+        assertFalse(session.isMuted());
+    }
+
+    @Test
+    public void earpieceRoute() {
+        assertTrue(session.isEarpieceRoute());
+        audioManager.setWiredHeadsetOn(true);
+        assertFalse(session.isEarpieceRoute());
+        audioManager.setWiredHeadsetOn(false);
+
+        // Without a session the app may be routing audio itself.
+        audioManager.setSpeakerphoneOn(true);
+        assertFalse(session.isEarpieceRoute());
+        audioManager.setSpeakerphoneOn(false);
+
+        session.startSession();
+        assertTrue(session.isEarpieceRoute());
+        session.setSpeakerOn(true);
+        assertFalse(session.isEarpieceRoute());
+    }
+}
@@ -0,0 +1,110 @@
+package com.clinix.call_service;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.telecom.Connection;
+import android.telecom.ConnectionRequest;
+import android.telecom.PhoneAccount;
+import android.telecom.PhoneAccountHandle;
+import android.telecom.TelecomManager;
+
+import androidx.core.app.NotificationCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowNotificationManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class CallConnectionServiceTest {
+    private Context context;
+    private ShadowNotificationManager notifications;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        notifications = shadowOf((NotificationManager)context.getSystemService(Context.NOTIFICATION_SERVICE));
+    }
+
+    @Test
+    public void registersSelfManagedAccountOnce() {
+        PhoneAccountHandle handle = CallConnectionService.registerPhoneAccount(context);
+        assertSame(handle, CallConnectionService.registerPhoneAccount(context));
+        PhoneAccount account = CallConnectionService.getTelecomManager(context).getPhoneAccount(handle);
+        assertNotNull(account);
+        assertTrue(account.hasCapabilities(PhoneAccount.CAPABILITY_SELF_MANAGED));
+    }
+
+    @Test
+    public void incomingCallRingsNatively() {
+        CallConnection connection = new CallConnection(context, "call-1", "Alice", "+15550100");
+        connection.setRinging();
+        connection.onShowIncomingCallUi();
+        assertEquals(1, notifications.size());
+        Notification notification = notifications.getAllNotifications().get(0);
+        assertEquals(NotificationCompat.CATEGORY_CALL, notification.category);
+        assertTrue((notification.flags & Notification.FLAG_INSISTENT) != 0);
+        assertEquals("Alice", notification.extras.getCharSequence(Notification.EXTRA_TITLE).toString());
+        assertEquals(2, notification.actions.length);
+
+        connection.onAnswer();
+        assertEquals(Connection.STATE_ACTIVE, connection.getState());
+        assertEquals(0, notifications.size());
+    }
+
+    @Test
+    public void concurrentIncomingCallsRingSeparately() {
+        CallConnection first = new CallConnection(context, "call-1", "Alice", null);
+        CallConnection second = new CallConnection(context, "call-2", "Bob", null);
+        first.setRinging();
+        second.setRinging();
+        first.onShowIncomingCallUi();
+        second.onShowIncomingCallUi();
+        assertEquals(2, notifications.size());
+        first.onReject();
+        assertEquals(Connection.STATE_DISCONNECTED, first.getState());
+        assertEquals(1, notifications.size());
+        second.onReady();
+        assertEquals(Connection.STATE_ACTIVE, second.getState());
+        assertEquals(0, notifications.size());
+    }
+
+    @Test
+    public void performsActionsOnKnownCalls() {
+        CallConnectionService service = Robolectric.setupService(CallConnectionService.class);
+        Bundle callExtras = new Bundle();
+        callExtras.putString(Constants.EXTRA_CALL_UUID, "call-3");
+        callExtras.putString(Constants.EXTRA_CALLER_NAME, "Carol");
+        Bundle extras = new Bundle();
+        extras.putBundle(TelecomManager.EXTRA_OUTGOING_CALL_EXTRAS, callExtras);
+        // The account is registered once per process, so build the handle rather than register it.
+        PhoneAccountHandle handle = new PhoneAccountHandle(new ComponentName(context, CallConnectionService.class), "call_service");
+        Connection connection = service.onCreateOutgoingConnection(handle,
+                new ConnectionRequest(handle, Uri.fromParts(PhoneAccount.SCHEME_TEL, "+15550100", null), extras));
+        assertEquals(Connection.STATE_DIALING, connection.getState());
+        assertSame(connection, CallConnectionService.getConnection("call-3"));
+
+        assertTrue(CallConnectionService.performAction(Constants.ACTION_HOLD_CALL, "call-3"));
+        assertEquals(Connection.STATE_HOLDING, connection.getState());
+        assertTrue(CallConnectionService.performAction(Constants.ACTION_END_CALL, "call-3"));
+        assertEquals(Connection.STATE_DISCONNECTED, connection.getState());
+        assertNull(CallConnectionService.getConnection("call-3"));
+        assertFalse(CallConnectionService.performAction(Constants.ACTION_END_CALL, "call-3"));
+        assertFalse(CallConnectionService.performAction(Constants.ACTION_ANSWER_CALL, null));
+    }
+}
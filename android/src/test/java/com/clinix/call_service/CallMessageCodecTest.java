@@ -0,0 +1,151 @@
+package com.clinix.call_service;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CallMessageCodecTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static class RecordingHandler implements CallMessageCodec.Handler {
+        int states;
+        int callDatas;
+        String callId;
+        CallProcessingState processingState;
+        boolean playing;
+        long updateTime;
+        Integer errorCode;
+        String errorMessage;
+        CallData callData;
+
+        @Override
+        public void onState(String callId, CallProcessingState processingState, boolean playing, long updateTime, Integer errorCode, String errorMessage) {
+            states++;
+            this.callId = callId;
+            this.processingState = processingState;
+            this.playing = playing;
+            this.updateTime = updateTime;
+            this.errorCode = errorCode;
+            this.errorMessage = errorMessage;
+        }
+
+        @Override
+        public void onCallData(CallData callData) {
+            callDatas++;
+            this.callData = callData;
+        }
+    }
+
+    @Test
+    public void stateRoundTrip() {
+        for (CallProcessingState state : CallProcessingState.values()) {
+            RecordingHandler handler = new RecordingHandler();
+            ByteBuffer buffer = CallMessageCodec.encodeState("call-1", state, true, 1234567890123L, 42, "\u00dcnreachable \u260e");
+            assertTrue(buffer.isDirect());
+            CallMessageCodec.decode(buffer, handler);
+            assertEquals(1, handler.states);
+            assertEquals(0, handler.callDatas);
+            assertEquals("call-1", handler.callId);
+            assertEquals(state, handler.processingState);
+            assertTrue(handler.playing);
+            assertEquals(1234567890123L, handler.updateTime);
+            assertEquals(Integer.valueOf(42), handler.errorCode);
+            assertEquals("\u00dcnreachable \u260e", handler.errorMessage);
+            assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    @Test
+    public void stateNulls() {
+        RecordingHandler handler = new RecordingHandler();
+        long before = System.currentTimeMillis();
+        CallMessageCodec.decode(CallMessageCodec.encodeState(null, CallProcessingState.idle, false, -1, null, null), handler);
+        assertNull(handler.callId);
+        assertFalse(handler.playing);
+        assertTrue(handler.updateTime >= before);
+        assertNull(handler.errorCode);
+        assertNull(handler.errorMessage);
+    }
+
+    @Test
+    public void errorCodesOtherThanNoErrorCodeSurvive() {
+        RecordingHandler handler = new RecordingHandler();
+        CallMessageCodec.decode(CallMessageCodec.encodeState("c", CallProcessingState.error, false, 0, 0, ""), handler);
+        assertEquals(Integer.valueOf(0), handler.errorCode);
+        assertEquals("", handler.errorMessage);
+        CallMessageCodec.decode(CallMessageCodec.encodeState("c", CallProcessingState.error, false, 0, -1, null), handler);
+        assertEquals(Integer.valueOf(-1), handler.errorCode);
+    }
+
+    @Test
+    public void callDataRoundTrip() {
+        CallData callData = new CallData();
+        callData.callId = "3f2c-\u03b1\u03b2\u03b3";
+        callData.callerName = "Zo\u00eb \ud83d\udc69\u200d\u2695\ufe0f";
+        callData.description = null;
+        RecordingHandler handler = new RecordingHandler();
+        CallMessageCodec.decode(CallMessageCodec.encodeCallData(callData), handler);
+        assertEquals(0, handler.states);
+        assertEquals(1, handler.callDatas);
+        assertEquals(callData.callId, handler.callData.callId);
+        assertEquals(callData.callerName, handler.callData.callerName);
+        assertNull(handler.callData.description);
+    }
+
+    @Test
+    public void decodesHeapBuffers() {
+        ByteBuffer direct = CallMessageCodec.encodeState("call-1", CallProcessingState.ready, true, 5, null, "message");
+        ByteBuffer heap = ByteBuffer.allocate(direct.remaining());
+        heap.put(direct).flip();
+        RecordingHandler handler = new RecordingHandler();
+        CallMessageCodec.decode(heap, handler);
+        assertEquals("call-1", handler.callId);
+        assertEquals("message", handler.errorMessage);
+    }
+
+    @Test
+    public void versionOneStateHasNoCallId() {
+        byte[] message = "late".getBytes(UTF8);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 1 + 1 + 8 + 4 + 4 + message.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte)1).put(CallMessageCodec.TYPE_STATE);
+        buffer.put((byte)CallProcessingState.buffering.ordinal()).put((byte)1);
+        buffer.putLong(99).putInt(CallMessageCodec.NO_ERROR_CODE);
+        buffer.putInt(message.length).put(message);
+        buffer.flip();
+        RecordingHandler handler = new RecordingHandler();
+        CallMessageCodec.decode(buffer, handler);
+        assertNull(handler.callId);
+        assertEquals(CallProcessingState.buffering, handler.processingState);
+        assertEquals(99, handler.updateTime);
+        assertNull(handler.errorCode);
+        assertEquals("late", handler.errorMessage);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNewerVersion() {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        buffer.put((byte)(CallMessageCodec.VERSION + 1)).put(CallMessageCodec.TYPE_STATE).flip();
+        CallMessageCodec.decode(buffer, new RecordingHandler());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsVersionZero() {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        buffer.put((byte)0).put(CallMessageCodec.TYPE_STATE).flip();
+        CallMessageCodec.decode(buffer, new RecordingHandler());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownType() {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        buffer.put(CallMessageCodec.VERSION).put((byte)9).flip();
+        CallMessageCodec.decode(buffer, new RecordingHandler());
+    }
+}
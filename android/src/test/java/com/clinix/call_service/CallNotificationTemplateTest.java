@@ -0,0 +1,156 @@
+package com.clinix.call_service;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.core.app.NotificationCompat;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CallNotificationTemplateTest {
+    private static final int BENCHMARK_UPDATES = 2000;
+    // Call state updates mostly repeat what is shown; one in ten changes the text.
+    private static final int CHANGE_EVERY = 10;
+
+    private Context context;
+    private CallNotificationTemplate template;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        template = new CallNotificationTemplate(new NotificationCompat.Builder(context, "channel")
+                .setSmallIcon(android.R.drawable.ic_media_play));
+    }
+
+    @Test
+    public void firstUpdateIsDirty() {
+        assertTrue(template.update("Alice", "Calling", false));
+        Notification notification = template.build();
+        assertEquals("Alice", notification.extras.getCharSequence(Notification.EXTRA_TITLE).toString());
+        assertEquals("Calling", notification.extras.getCharSequence(Notification.EXTRA_TEXT).toString());
+    }
+
+    @Test
+    public void unchangedUpdateReusesNotification() {
+        template.update("Alice", "Calling", false);
+        Notification notification = template.build();
+        assertFalse(template.update("Alice", "Calling", false));
+        assertSame(notification, template.build());
+        assertSame(notification, template.build());
+    }
+
+    @Test
+    public void changedTextRebuilds() {
+        template.update("Alice", "Calling", false);
+        Notification notification = template.build();
+        assertTrue(template.update("Alice", "Connected", false));
+        Notification rebuilt = template.build();
+        assertNotSame(notification, rebuilt);
+        assertEquals("Connected", rebuilt.extras.getCharSequence(Notification.EXTRA_TEXT).toString());
+        assertTrue(template.update(null, "Connected", false));
+        assertFalse(template.update(null, "Connected", false));
+    }
+
+    @Test
+    public void chronometerStartsWhenSwitchedOn() {
+        template.update("Alice", "Calling", false);
+        assertFalse(template.build().extras.getBoolean(Notification.EXTRA_SHOW_CHRONOMETER));
+        long before = System.currentTimeMillis();
+        assertTrue(template.update("Alice", "Connected", true));
+        Notification notification = template.build();
+        assertTrue(notification.extras.getBoolean(Notification.EXTRA_SHOW_CHRONOMETER));
+        assertTrue(notification.when >= before);
+        // Other changes keep counting from the same moment.
+        assertTrue(template.update("Alice", "On hold", true));
+        assertEquals(notification.when, template.build().when);
+    }
+
+    /** What CallService did before templates: a new builder, intent and notification per update. */
+    private Notification buildFromScratch(String title, String text, boolean useChronometer) {
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, "channel")
+                .setSmallIcon(android.R.drawable.ic_media_play)
+                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+                .setShowWhen(false)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setCategory(NotificationCompat.CATEGORY_CALL)
+                .setOngoing(true);
+        if (useChronometer) {
+            builder.setUsesChronometer(true);
+        }
+        Intent stopSelf = new Intent(context, CallService.class);
+        stopSelf.setAction(CallService.ACTION_STOP_SERVICE);
+        PendingIntent hangUp = PendingIntent.getService(context, 0, stopSelf,
+                PendingIntent.FLAG_CANCEL_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        builder.addAction(android.R.drawable.ic_menu_close_clear_cancel, "HangUp", hangUp);
+        builder.setSubText("consult");
+        return builder.build();
+    }
+
+    private Notification buildFromTemplate(String title, String text, boolean useChronometer) {
+        template.update(title, text, useChronometer);
+        return template.build();
+    }
+
+    private static String text(int update) {
+        return "Connected " + update / CHANGE_EVERY;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void templateUpdatesAreCheaperThanRebuilding() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        String[] texts = new String[BENCHMARK_UPDATES];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = text(i);
+        }
+        // Warm up both paths.
+        for (int i = 0; i < BENCHMARK_UPDATES; i++) {
+            buildFromScratch("Alice", texts[i], true);
+            buildFromTemplate("Alice", texts[i], true);
+        }
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_UPDATES; i++) {
+            buildFromScratch("Alice", texts[i], true);
+        }
+        long scratchNanos = (System.nanoTime() - start) / BENCHMARK_UPDATES;
+        long scratchBytes = (allocatedBytes() - bytes) / BENCHMARK_UPDATES;
+
+        bytes = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_UPDATES; i++) {
+            buildFromTemplate("Alice", texts[i], true);
+        }
+        long templateNanos = (System.nanoTime() - start) / BENCHMARK_UPDATES;
+        long templateBytes = (allocatedBytes() - bytes) / BENCHMARK_UPDATES;
+
+        System.out.println("Per update: rebuild " + scratchNanos + " ns, " + scratchBytes + " B; template "
+                + templateNanos + " ns, " + templateBytes + " B");
+        // Only one update in CHANGE_EVERY builds a notification, so the margins are generous.
+        assertTrue("template allocates " + templateBytes + " B vs " + scratchBytes + " B",
+                templateBytes * 4 < scratchBytes);
+        assertTrue("template takes " + templateNanos + " ns vs " + scratchNanos + " ns",
+                templateNanos * 2 < scratchNanos);
+    }
+}
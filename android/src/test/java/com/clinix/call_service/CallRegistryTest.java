@@ -0,0 +1,97 @@
+package com.clinix.call_service;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CallRegistryTest {
+    private static final int FIRST_ID = 1124;
+
+    @Test
+    public void concurrentCreatesGetUniqueNotificationIds() throws Exception {
+        final CallRegistry registry = new CallRegistry(FIRST_ID);
+        final int threads = 8;
+        final int calls = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final ConcurrentHashMap<String, CallRegistry.Entry> seen = new ConcurrentHashMap<String, CallRegistry.Entry>();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        // Every thread creates every call, so each id is raced for.
+                        for (int i = 0; i < calls; i++) {
+                            CallRegistry.Entry entry = registry.getOrCreate("call-" + i);
+                            CallRegistry.Entry previous = seen.putIfAbsent(entry.callId, entry);
+                            if (previous != null && previous != entry) {
+                                failure.set("Two entries for " + entry.callId);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failure.set(e.toString());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertNull(failure.get());
+        assertEquals(calls, registry.size());
+        Set<Integer> ids = new HashSet<Integer>();
+        for (CallRegistry.Entry entry : registry.all()) {
+            assertTrue(entry.notificationId >= FIRST_ID && entry.notificationId < FIRST_ID + calls);
+            ids.add(entry.notificationId);
+        }
+        assertEquals(calls, ids.size());
+    }
+
+    @Test
+    public void nullCallIdUsesDefaultKey() {
+        CallRegistry registry = new CallRegistry(FIRST_ID);
+        CallRegistry.Entry entry = registry.getOrCreate(null);
+        assertEquals(CallRegistry.DEFAULT_CALL_ID, entry.callId);
+        assertSame(entry, registry.get(CallRegistry.DEFAULT_CALL_ID));
+    }
+
+    @Test
+    public void activeCall() {
+        CallRegistry registry = new CallRegistry(FIRST_ID);
+        assertNull(registry.getActive());
+        CallRegistry.Entry a = registry.getOrCreate("a");
+        CallRegistry.Entry b = registry.getOrCreate("b");
+        registry.setActive("b");
+        assertSame(b, registry.getActive());
+        assertSame(b, registry.remove("b"));
+        // Falls back to any remaining call.
+        assertSame(a, registry.getActive());
+        registry.clear();
+        assertTrue(registry.isEmpty());
+        assertNull(registry.getActive());
+    }
+
+    @Test
+    public void notificationIdsRestartWhenEmpty() {
+        CallRegistry registry = new CallRegistry(FIRST_ID);
+        assertEquals(FIRST_ID, registry.getOrCreate("a").notificationId);
+        assertEquals(FIRST_ID + 1, registry.getOrCreate("b").notificationId);
+        registry.remove("a");
+        assertEquals(FIRST_ID + 2, registry.getOrCreate("c").notificationId);
+        registry.remove("b");
+        registry.remove("c");
+        assertEquals(FIRST_ID, registry.getOrCreate("d").notificationId);
+    }
+}
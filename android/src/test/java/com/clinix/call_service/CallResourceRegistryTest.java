@@ -0,0 +1,112 @@
+package com.clinix.call_service;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Resources;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CallResourceRegistryTest {
+    private static final int NOTIFICATION_UPDATES = 20;
+
+    /** An application context whose resources count identifier lookups. */
+    private static class CountingContext extends ContextWrapper {
+        int identifierLookups;
+        private final Resources resources;
+
+        @SuppressWarnings("deprecation")
+        CountingContext(Context base) {
+            super(base);
+            Resources baseResources = base.getResources();
+            resources = new Resources(baseResources.getAssets(), baseResources.getDisplayMetrics(), baseResources.getConfiguration()) {
+                @Override
+                public int getIdentifier(String name, String defType, String defPackage) {
+                    identifierLookups++;
+                    return super.getIdentifier(name, defType, defPackage);
+                }
+            };
+        }
+
+        @Override
+        public Resources getResources() {
+            return resources;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+    }
+
+    private Context context;
+    private CallServiceConfig config;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        config = new CallServiceConfig(context);
+    }
+
+    private CallServiceConfig withIcon(String icon) {
+        CallServiceConfig.Editor editor = config.edit();
+        editor.androidNotificationIcon = icon;
+        return editor.build();
+    }
+
+    @Test
+    public void configuredIconIsSmallIcon() {
+        assertEquals(R.drawable.audio_service_stop, CallResourceRegistry.resolve(context, withIcon("drawable/audio_service_stop")).notificationIcon);
+        assertEquals(R.drawable.audio_service_pause, CallResourceRegistry.resolve(context, withIcon("audio_service_pause")).notificationIcon);
+    }
+
+    @Test
+    public void missingIconFallsBackToAppIcon() {
+        CallResourceRegistry resources = CallResourceRegistry.resolve(context, withIcon("drawable/does_not_exist"));
+        assertTrue(resources.appIcon != 0);
+        assertEquals(resources.appIcon, resources.notificationIcon);
+        assertEquals(resources.appIcon, CallResourceRegistry.resolve(context, withIcon(null)).notificationIcon);
+    }
+
+    @Test
+    public void missingStopIconFallsBackToPlatformIcon() {
+        CallResourceRegistry resources = CallResourceRegistry.resolve(context, config);
+        assertEquals(android.R.drawable.ic_menu_close_clear_cancel, resources.stopIcon);
+    }
+
+    @Test
+    public void getResolvesOncePerConfig() {
+        CountingContext counting = new CountingContext(context);
+        CallResourceRegistry resources = CallResourceRegistry.get(counting, config);
+        int lookups = counting.identifierLookups;
+        assertTrue(lookups > 0);
+        for (int i = 0; i < NOTIFICATION_UPDATES; i++) {
+            assertSame(resources, CallResourceRegistry.get(counting, config));
+        }
+        assertEquals(lookups, counting.identifierLookups);
+        CallServiceConfig reconfigured = new CallServiceConfig(context);
+        assertNotSame(resources, CallResourceRegistry.get(counting, reconfigured));
+        assertEquals(2 * lookups, counting.identifierLookups);
+    }
+
+    @Test
+    public void ringNotificationsDoNotLookUpResources() {
+        CountingContext counting = new CountingContext(context);
+        CallResourceRegistry resources = CallResourceRegistry.get(counting, config);
+        counting.identifierLookups = 0;
+        for (int i = 0; i < NOTIFICATION_UPDATES; i++) {
+            IncomingCallNotifier.show(counting, resources, "call-" + i, "Alice");
+            IncomingCallNotifier.cancel(counting, "call-" + i);
+        }
+        assertEquals(0, counting.identifierLookups);
+    }
+}
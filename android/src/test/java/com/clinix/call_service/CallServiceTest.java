@@ -0,0 +1,151 @@
+package com.clinix.call_service;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.shadows.ShadowNotificationManager;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class CallServiceTest {
+    private static final int CALLS = 300;
+    // Generous enough for a slow CI machine; routing that scans every call per update is not.
+    private static final long MAX_NANOS_PER_OPERATION = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private ServiceController<CallService> controller;
+    private CallService service;
+    private ShadowNotificationManager notifications;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        notifications = shadowOf((NotificationManager)context.getSystemService(Context.NOTIFICATION_SERVICE));
+        controller = Robolectric.buildService(CallService.class).create();
+        service = controller.get();
+        drain(0);
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+        drain(0);
+    }
+
+    /**
+     * Runs the call worker until nothing is due within {@code ms}, then the main-thread work it
+     * handed back, such as startForeground.
+     */
+    private static void drain(long ms) {
+        shadowOf(CallWorker.getHandler().getLooper()).idleFor(ms, TimeUnit.MILLISECONDS);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private static String callId(int i) {
+        return "call-" + i;
+    }
+
+    private static String callerName(int i) {
+        return "Caller " + i;
+    }
+
+    private static CallData callData(int i) {
+        CallData callData = new CallData();
+        callData.callId = callId(i);
+        callData.callerName = callerName(i);
+        return callData;
+    }
+
+    /** Time the worker spends per operation on the {@code operations} already queued. */
+    private static long drainNanosPerOperation(String phase, int operations) {
+        long start = System.nanoTime();
+        // Past the state coalescing window, so every submitted state has been applied.
+        drain(CallServiceConfig.DEFAULT_STATE_COALESCE_WINDOW_MS * 2);
+        long nanos = (System.nanoTime() - start) / operations;
+        System.out.println(phase + ": " + nanos + " ns per operation over " + operations);
+        assertTrue(phase + " took " + nanos + " ns per operation", nanos < MAX_NANOS_PER_OPERATION);
+        return nanos;
+    }
+
+    private String shownText(CallRegistry.Entry entry) {
+        Notification notification = notifications.getNotification(entry.notificationId);
+        return notification == null ? null : notification.extras.getCharSequence(Notification.EXTRA_TEXT).toString();
+    }
+
+    @Test
+    public void manyConcurrentCallsKeepTheirOwnState() {
+        // The setMediaItem and setState commands of every call, interleaved as Dart sends them.
+        for (int i = 0; i < CALLS; i++) {
+            service.setCallData(callData(i));
+            service.setState(callId(i), CallProcessingState.loading, false, null, null);
+        }
+        drainNanosPerOperation("setup", CALLS * 2);
+        CallRegistry calls = service.getCalls();
+        assertEquals(CALLS, calls.size());
+
+        for (int i = 0; i < CALLS; i++) {
+            service.setState(callId(i), CallProcessingState.ready, true, null, null);
+        }
+        drainNanosPerOperation("answer", CALLS);
+        // The notification poster spreads the posts over its rate limit.
+        drain(TimeUnit.SECONDS.toMillis(CALLS / NotificationPoster.DEFAULT_POSTS_PER_SECOND + 1));
+
+        Set<Integer> notificationIds = new HashSet<Integer>();
+        for (int i = 0; i < CALLS; i++) {
+            CallRegistry.Entry entry = calls.get(callId(i));
+            assertNotNull(entry);
+            assertEquals(callId(i), entry.callData.callId);
+            assertEquals(CallProcessingState.ready, entry.processingState);
+            assertTrue(entry.playing);
+            assertTrue(notificationIds.add(entry.notificationId));
+            assertEquals(callerName(i), shownText(entry));
+        }
+        assertEquals(CALLS, notifications.size());
+
+        // Odd calls go on hold and even calls hang up; neither may touch the other calls.
+        for (int i = 0; i < CALLS; i++) {
+            if (i % 2 == 0) {
+                service.setState(callId(i), CallProcessingState.completed, false, null, null);
+            } else {
+                service.setState(callId(i), CallProcessingState.buffering, true, null, null);
+            }
+        }
+        drainNanosPerOperation("hold and hang up", CALLS);
+        drain(TimeUnit.SECONDS.toMillis(CALLS / NotificationPoster.DEFAULT_POSTS_PER_SECOND + 1));
+
+        assertEquals(CALLS / 2, calls.size());
+        for (int i = 0; i < CALLS; i++) {
+            CallRegistry.Entry entry = calls.get(callId(i));
+            if (i % 2 == 0) {
+                assertNull(entry);
+                continue;
+            }
+            assertEquals(callId(i), entry.callId);
+            assertEquals(callId(i), entry.callData.callId);
+            assertEquals(CallProcessingState.buffering, entry.processingState);
+            assertTrue(entry.playing);
+            assertEquals(callerName(i), shownText(entry));
+        }
+        assertEquals(CALLS / 2, notifications.size());
+        assertSame(service, CallService.instance);
+    }
+}
@@ -0,0 +1,210 @@
+package com.clinix.call_service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CallSnapshotStoreTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("calls", ".bin");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private static CallRegistry.Entry entry(String callId, String callerName, CallProcessingState state, boolean playing) {
+        CallRegistry.Entry entry = new CallRegistry.Entry(callId, 0);
+        CallData callData = new CallData();
+        callData.callId = callId;
+        callData.callerName = callerName;
+        entry.callData = callData;
+        entry.processingState = state;
+        entry.playing = playing;
+        return entry;
+    }
+
+    private List<CallSnapshotStore.Snapshot> reload() {
+        return new CallSnapshotStore(file).load();
+    }
+
+    private static List<String> callIds(List<CallSnapshotStore.Snapshot> snapshots) {
+        List<String> callIds = new ArrayList<String>();
+        for (CallSnapshotStore.Snapshot snapshot : snapshots) {
+            callIds.add(snapshot.callId);
+        }
+        return callIds;
+    }
+
+    private void appendBytes(byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void putRemoveAndLoadRoundTrip() {
+        CallSnapshotStore store = new CallSnapshotStore(file);
+        assertTrue(store.load().isEmpty());
+        store.put(entry("a", "Alice", CallProcessingState.loading, false));
+        store.put(entry("b", "Bob", CallProcessingState.ready, true));
+        store.put(entry("a", "Alice \u00e9", CallProcessingState.buffering, true));
+        store.remove("b");
+
+        List<CallSnapshotStore.Snapshot> snapshots = reload();
+        assertEquals(1, snapshots.size());
+        CallSnapshotStore.Snapshot a = snapshots.get(0);
+        assertEquals("a", a.callId);
+        assertEquals("Alice \u00e9", a.callerName);
+        assertNull(a.description);
+        assertEquals(CallProcessingState.buffering, a.processingState);
+        assertTrue(a.playing);
+    }
+
+    @Test
+    public void unchangedPutWritesNothing() {
+        CallSnapshotStore store = new CallSnapshotStore(file);
+        store.put(entry("a", "Alice", CallProcessingState.ready, true));
+        long length = file.length();
+        store.put(entry("a", "Alice", CallProcessingState.ready, true));
+        assertEquals(length, file.length());
+        assertEquals(1L, store.toMap().get("writes"));
+    }
+
+    @Test
+    public void truncatedLastRecordIsDropped() throws IOException {
+        CallSnapshotStore store = new CallSnapshotStore(file);
+        store.put(entry("a", "Alice", CallProcessingState.ready, true));
+        store.put(entry("b", "Bob", CallProcessingState.ready, true));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+        assertEquals("[a]", callIds(reload()).toString());
+        // The load rewrote the file without the torn tail.
+        assertEquals("[a]", callIds(reload()).toString());
+    }
+
+    @Test
+    public void corruptedRecordStopsReading() throws IOException {
+        CallSnapshotStore store = new CallSnapshotStore(file);
+        store.put(entry("a", "Alice", CallProcessingState.ready, true));
+        long firstRecordEnd = file.length();
+        store.put(entry("b", "Bob", CallProcessingState.ready, true));
+        store.put(entry("c", "Carol", CallProcessingState.ready, true));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // Flip a bit in the payload of b, so its checksum no longer matches.
+            long offset = firstRecordEnd + 6;
+            raf.seek(offset);
+            int value = raf.read();
+            raf.seek(offset);
+            raf.write(value ^ 1);
+        } finally {
+            raf.close();
+        }
+        // Nothing after a corrupt record can be trusted, so c is lost too.
+        assertEquals("[a]", callIds(reload()).toString());
+    }
+
+    @Test
+    public void oversizedLengthStopsReading() throws IOException {
+        CallSnapshotStore store = new CallSnapshotStore(file);
+        store.put(entry("a", "Alice", CallProcessingState.ready, true));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CallSnapshotStore.COMPACT_BYTES + 1);
+        out.write(new byte[16]);
+        appendBytes(bytes.toByteArray());
+        assertEquals("[a]", callIds(reload()).toString());
+        assertTrue(file.length() < 64);
+    }
+
+    @Test
+    public void compactionKeepsExactlyTheLiveCalls() {
+        CallSnapshotStore store = new CallSnapshotStore(file);
+        CallProcessingState[] states = {CallProcessingState.loading, CallProcessingState.buffering, CallProcessingState.ready};
+        int update = 0;
+        while ((Long)store.toMap().get("compactions") < 2) {
+            String callId = "call-" + update % 7;
+            if (update % 5 == 4) {
+                store.remove(callId);
+            } else {
+                store.put(entry(callId, "Caller " + update, states[update % states.length], update % 2 == 0));
+            }
+            update++;
+        }
+        assertTrue(file.length() <= CallSnapshotStore.COMPACT_BYTES);
+        Map<String, Object> stats = store.toMap();
+        List<CallSnapshotStore.Snapshot> snapshots = reload();
+        assertEquals(stats.get("calls"), snapshots.size());
+
+        // Replay the same updates in memory to know which calls should have survived.
+        LinkedHashMap<String, String> expected = new LinkedHashMap<String, String>();
+        for (int i = 0; i < update; i++) {
+            String callId = "call-" + i % 7;
+            if (i % 5 == 4) {
+                expected.remove(callId);
+            } else {
+                expected.put(callId, "Caller " + i);
+            }
+        }
+        assertEquals(expected.size(), snapshots.size());
+        for (CallSnapshotStore.Snapshot snapshot : snapshots) {
+            assertEquals(expected.get(snapshot.callId), snapshot.callerName);
+        }
+    }
+
+    @Test
+    public void appendsAfterLoad() {
+        CallSnapshotStore first = new CallSnapshotStore(file);
+        first.put(entry("a", "Alice", CallProcessingState.ready, true));
+        first.put(entry("b", "Bob", CallProcessingState.ready, false));
+
+        CallSnapshotStore second = new CallSnapshotStore(file);
+        assertEquals("[a, b]", callIds(second.load()).toString());
+        second.put(entry("c", "Carol", CallProcessingState.loading, false));
+        second.remove("a");
+
+        List<CallSnapshotStore.Snapshot> snapshots = reload();
+        assertEquals("[b, c]", callIds(snapshots).toString());
+        assertFalse(snapshots.get(0).playing);
+        assertEquals(CallProcessingState.loading, snapshots.get(1).processingState);
+    }
+
+    @Test
+    public void clearRemovesTheFile() {
+        CallSnapshotStore store = new CallSnapshotStore(file);
+        store.put(entry("a", "Alice", CallProcessingState.ready, true));
+        store.clear();
+        assertTrue(store.isEmpty());
+        assertTrue(reload().isEmpty());
+    }
+}
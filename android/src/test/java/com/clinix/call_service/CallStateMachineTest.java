@@ -0,0 +1,100 @@
+package com.clinix.call_service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.clinix.call_service.CallProcessingState.buffering;
+import static com.clinix.call_service.CallProcessingState.completed;
+import static com.clinix.call_service.CallProcessingState.error;
+import static com.clinix.call_service.CallProcessingState.idle;
+import static com.clinix.call_service.CallProcessingState.loading;
+import static com.clinix.call_service.CallProcessingState.ready;
+import static com.clinix.call_service.CallStateMachine.ACTION_END_CALL;
+import static com.clinix.call_service.CallStateMachine.ACTION_ENTER_PLAYING;
+import static com.clinix.call_service.CallStateMachine.ACTION_EXIT_PLAYING;
+import static com.clinix.call_service.CallStateMachine.ACTION_UPDATE_NOTIFICATION;
+import static com.clinix.call_service.CallStateMachine.REJECTED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallStateMachineTest {
+    private CallStateMachine machine;
+
+    @Before
+    public void setUp() {
+        machine = new CallStateMachine();
+    }
+
+    @Test
+    public void answeringEntersPlaying() {
+        assertEquals(ACTION_ENTER_PLAYING | ACTION_UPDATE_NOTIFICATION, machine.transition(loading, false, ready, true));
+        assertEquals(ACTION_ENTER_PLAYING, machine.transition(buffering, false, buffering, true));
+        // The example app goes straight from idle to ready.
+        assertEquals(ACTION_ENTER_PLAYING | ACTION_UPDATE_NOTIFICATION, machine.transition(idle, false, ready, true));
+    }
+
+    @Test
+    public void hangingUpExitsAndEnds() {
+        assertEquals(ACTION_EXIT_PLAYING | ACTION_END_CALL, machine.transition(ready, true, idle, false));
+        assertEquals(ACTION_EXIT_PLAYING | ACTION_END_CALL, machine.transition(ready, true, completed, false));
+        assertEquals(ACTION_END_CALL, machine.transition(loading, false, completed, false));
+        assertEquals(ACTION_EXIT_PLAYING, machine.transition(ready, true, error, false));
+    }
+
+    @Test
+    public void playingAsTheCallEndsOnlyEndsIt() {
+        assertEquals(ACTION_END_CALL, machine.transition(ready, false, idle, true));
+        assertEquals(ACTION_END_CALL, machine.transition(buffering, false, completed, true));
+        // Already playing: leave the state as it is, just end the call.
+        assertEquals(ACTION_END_CALL, machine.transition(ready, true, completed, true));
+    }
+
+    @Test
+    public void rejectsPlayingFromAnEndedCall() {
+        assertEquals(REJECTED, machine.transition(idle, false, idle, true));
+        assertEquals(REJECTED, machine.transition(idle, false, completed, true));
+        assertEquals(REJECTED, machine.transition(completed, false, completed, true));
+        assertEquals(REJECTED, machine.transition(completed, false, idle, true));
+    }
+
+    @Test
+    public void completedMustGoBackToIdle() {
+        for (CallProcessingState to : CallProcessingState.values()) {
+            if (to == idle || to == completed) continue;
+            assertEquals(REJECTED, machine.transition(completed, false, to, false));
+            assertEquals(REJECTED, machine.transition(completed, true, to, true));
+        }
+        assertTrue(machine.transition(completed, false, idle, false) != REJECTED);
+    }
+
+    @Test
+    public void countsTransitions() {
+        machine.transition(loading, false, ready, true);
+        machine.transition(idle, false, idle, true);
+        machine.transition(completed, false, ready, false);
+        assertEquals(2, machine.getRejectedCount());
+        assertEquals(1L, machine.toMap().get("transitions"));
+        assertEquals(2L, machine.toMap().get("rejected"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void phaseDurationsUseMinuteBuckets() {
+        machine.recordPhase(ready, TimeUnit.SECONDS.toNanos(45));
+        machine.recordPhase(ready, TimeUnit.MINUTES.toNanos(7));
+        machine.recordPhase(ready, TimeUnit.HOURS.toNanos(3));
+        Map<String, Object> phase = (Map<String, Object>)((Map<String, Object>)machine.toMap().get("phases")).get("ready");
+        List<Long> bounds = (List<Long>)phase.get("bucketBoundsUs");
+        List<Long> buckets = (List<Long>)phase.get("buckets");
+        assertEquals(bounds.size() + 1, buckets.size());
+        // 45 s falls in (30 s, 1 min], 7 min in (5 min, 10 min]; only 3 h overflows.
+        assertEquals(1L, (long)buckets.get(bounds.indexOf(TimeUnit.MINUTES.toMicros(1))));
+        assertEquals(1L, (long)buckets.get(bounds.indexOf(TimeUnit.MINUTES.toMicros(10))));
+        assertEquals(1L, (long)buckets.get(bounds.size()));
+        assertEquals(TimeUnit.HOURS.toMicros(3), phase.get("maxUs"));
+    }
+}
@@ -0,0 +1,190 @@
+package com.clinix.call_service;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class ClientBroadcasterTest {
+    private static class RecordingClient implements ClientBroadcaster.Client {
+        final List<String> methods = new ArrayList<String>();
+        final List<Object> args = new ArrayList<Object>();
+
+        @Override
+        public void invokeMethod(String method, Object arg) {
+            methods.add(method);
+            args.add(arg);
+        }
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private static void idle() {
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    @Test
+    public void attachDetachWhileBroadcasting() throws Exception {
+        final ClientBroadcaster<RecordingClient> broadcaster = new ClientBroadcaster<RecordingClient>(handler, 16,
+                ClientBroadcaster.OverflowPolicy.COALESCE_BY_METHOD);
+        RecordingClient permanent = new RecordingClient();
+        broadcaster.add(permanent);
+        final int senders = 4;
+        final int messages = 2000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch sent = new CountDownLatch(senders);
+        final AtomicBoolean sending = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int s = 0; s < senders; s++) {
+            final String method = "sender" + s;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < messages; i++) {
+                            broadcaster.broadcast(method, i);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    } finally {
+                        sent.countDown();
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < 2; c++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (sending.get()) {
+                            RecordingClient client = new RecordingClient();
+                            broadcaster.add(client);
+                            broadcaster.remove(client);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        sent.await();
+        sending.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertEquals(1, broadcaster.size());
+        idle();
+
+        // The permanent client got every message, each sender's in order.
+        assertEquals(senders * messages, permanent.methods.size());
+        int[] next = new int[senders];
+        for (int i = 0; i < permanent.methods.size(); i++) {
+            int sender = Integer.parseInt(permanent.methods.get(i).substring("sender".length()));
+            assertEquals(next[sender]++, permanent.args.get(i));
+        }
+        assertEquals(0, broadcaster.getDroppedCount());
+        assertEquals(0, broadcaster.getCoalescedCount());
+    }
+
+    @Test
+    public void coalescesOnlyStateMethods() {
+        ClientBroadcaster<RecordingClient> broadcaster = new ClientBroadcaster<RecordingClient>(handler, 2,
+                ClientBroadcaster.OverflowPolicy.COALESCE_BY_METHOD);
+        broadcaster.setCoalescedMethods("onAudioSessionChanged");
+        RecordingClient client = new RecordingClient();
+        broadcaster.add(client);
+        Map<String, Object> muted = new HashMap<String, Object>();
+        muted.put("muted", true);
+        Map<String, Object> speaker = new HashMap<String, Object>();
+        speaker.put("speakerOn", true);
+        broadcaster.broadcast("onAudioSessionChanged", muted);
+        broadcaster.broadcast("onCallEnded", "a");
+        broadcaster.broadcast("onAudioSessionChanged", speaker);
+        broadcaster.broadcast("onCallEnded", "b");
+        idle();
+
+        assertEquals(3, client.methods.size());
+        assertEquals("onAudioSessionChanged", client.methods.get(0));
+        Map<String, Object> merged = new HashMap<String, Object>();
+        merged.put("muted", true);
+        merged.put("speakerOn", true);
+        assertEquals(merged, client.args.get(0));
+        assertEquals("a", client.args.get(1));
+        assertEquals("b", client.args.get(2));
+        // The caller's map is left alone.
+        assertEquals(1, muted.size());
+        assertEquals(1, broadcaster.getCoalescedCount());
+        assertEquals(0, broadcaster.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldest() {
+        ClientBroadcaster<RecordingClient> broadcaster = new ClientBroadcaster<RecordingClient>(handler, 2,
+                ClientBroadcaster.OverflowPolicy.DROP_OLDEST);
+        RecordingClient client = new RecordingClient();
+        broadcaster.add(client);
+        for (int i = 0; i < 3; i++) {
+            broadcaster.broadcast("m", i);
+        }
+        idle();
+        assertEquals(2, client.args.size());
+        assertEquals(1, client.args.get(0));
+        assertEquals(2, client.args.get(1));
+        assertEquals(1, broadcaster.getDroppedCount());
+    }
+
+    @Test
+    public void dropNewest() {
+        ClientBroadcaster<RecordingClient> broadcaster = new ClientBroadcaster<RecordingClient>(handler, 2,
+                ClientBroadcaster.OverflowPolicy.DROP_NEWEST);
+        RecordingClient client = new RecordingClient();
+        broadcaster.add(client);
+        for (int i = 0; i < 3; i++) {
+            broadcaster.broadcast("m", i);
+        }
+        idle();
+        assertEquals(2, client.args.size());
+        assertEquals(0, client.args.get(0));
+        assertEquals(1, client.args.get(1));
+        assertEquals(1, broadcaster.getDroppedCount());
+    }
+
+    @Test
+    public void removedClientGetsNothingQueued() {
+        ClientBroadcaster<RecordingClient> broadcaster = new ClientBroadcaster<RecordingClient>(handler, 8,
+                ClientBroadcaster.OverflowPolicy.DROP_OLDEST);
+        RecordingClient client = new RecordingClient();
+        broadcaster.add(client);
+        broadcaster.add(client);
+        assertEquals(1, broadcaster.size());
+        broadcaster.broadcast("m", 0);
+        broadcaster.remove(client);
+        idle();
+        assertEquals(0, client.methods.size());
+        assertEquals(0, broadcaster.size());
+    }
+}
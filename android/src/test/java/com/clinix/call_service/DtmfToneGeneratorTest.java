@@ -0,0 +1,101 @@
+package com.clinix.call_service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DtmfToneGeneratorTest {
+    private static final int TONE_SAMPLES = DtmfToneGenerator.SAMPLE_RATE * DtmfToneGenerator.TONE_MS / 1000;
+    // Row and column of each of DtmfToneGenerator.DIGITS on the keypad.
+    private static final int[] ROW_OF = {0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3};
+    private static final int[] COLUMN_OF = {0, 1, 2, 3, 0, 1, 2, 3, 0, 1, 2, 3, 0, 1, 2, 3};
+
+    /** Power of {@code frequency} in the samples, by the Goertzel algorithm. */
+    private static double power(short[] samples, int offset, int length, double frequency) {
+        double coefficient = 2 * Math.cos(2 * Math.PI * frequency / DtmfToneGenerator.SAMPLE_RATE);
+        double previous = 0;
+        double beforePrevious = 0;
+        for (int n = 0; n < length; n++) {
+            double current = samples[offset + n] + coefficient * previous - beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+        }
+        return previous * previous + beforePrevious * beforePrevious - coefficient * previous * beforePrevious;
+    }
+
+    @Test
+    public void everyDigitHasItsRowAndColumnFrequency() {
+        short[] buffer = new short[DtmfToneGenerator.SAMPLES_PER_DIGIT];
+        for (int i = 0; i < DtmfToneGenerator.DIGITS.length(); i++) {
+            char digit = DtmfToneGenerator.DIGITS.charAt(i);
+            assertEquals(DtmfToneGenerator.SAMPLES_PER_DIGIT, DtmfToneGenerator.render(digit, buffer, 0));
+            int row = ROW_OF[i];
+            int column = COLUMN_OF[i];
+            double rowPower = power(buffer, 0, TONE_SAMPLES, DtmfToneGenerator.ROW_FREQUENCIES[row]);
+            double columnPower = power(buffer, 0, TONE_SAMPLES, DtmfToneGenerator.COLUMN_FREQUENCIES[column]);
+            for (int r = 0; r < 4; r++) {
+                if (r == row) continue;
+                double other = power(buffer, 0, TONE_SAMPLES, DtmfToneGenerator.ROW_FREQUENCIES[r]);
+                assertTrue("Digit " + digit + " row " + r, rowPower > 100 * other);
+            }
+            for (int c = 0; c < 4; c++) {
+                if (c == column) continue;
+                double other = power(buffer, 0, TONE_SAMPLES, DtmfToneGenerator.COLUMN_FREQUENCIES[c]);
+                assertTrue("Digit " + digit + " column " + c, columnPower > 100 * other);
+            }
+            // Both tones are sent at the same level.
+            assertEquals(1.0, rowPower / columnPower, 0.1);
+        }
+    }
+
+    @Test
+    public void toneIsFollowedBySilence() {
+        short[] buffer = new short[DtmfToneGenerator.SAMPLES_PER_DIGIT];
+        DtmfToneGenerator.render('5', buffer, 0);
+        for (int n = TONE_SAMPLES; n < buffer.length; n++) {
+            assertEquals(0, buffer[n]);
+        }
+        // Ramped in and out, so it starts and ends without a click.
+        assertEquals(0, buffer[0]);
+        assertEquals(0, buffer[TONE_SAMPLES - 1]);
+        int peak = 0;
+        for (int n = 0; n < TONE_SAMPLES; n++) {
+            peak = Math.max(peak, Math.abs(buffer[n]));
+        }
+        assertTrue(peak > Short.MAX_VALUE / 2);
+    }
+
+    @Test
+    public void rendersAtOffset() {
+        short[] single = new short[DtmfToneGenerator.SAMPLES_PER_DIGIT];
+        short[] sequence = new short[2 * DtmfToneGenerator.SAMPLES_PER_DIGIT];
+        int written = DtmfToneGenerator.render('1', sequence, 0);
+        written += DtmfToneGenerator.render('#', sequence, written);
+        assertEquals(sequence.length, written);
+        DtmfToneGenerator.render('#', single, 0);
+        short[] second = new short[DtmfToneGenerator.SAMPLES_PER_DIGIT];
+        System.arraycopy(sequence, DtmfToneGenerator.SAMPLES_PER_DIGIT, second, 0, second.length);
+        assertArrayEquals(single, second);
+    }
+
+    @Test
+    public void lettersAreCaseInsensitive() {
+        for (char letter = 'a'; letter <= 'd'; letter++) {
+            assertEquals(DtmfToneGenerator.indexOf(Character.toUpperCase(letter)), DtmfToneGenerator.indexOf(letter));
+            assertTrue(DtmfToneGenerator.indexOf(letter) >= 0);
+        }
+    }
+
+    @Test
+    public void unknownDigitRendersNothing() {
+        short[] buffer = new short[DtmfToneGenerator.SAMPLES_PER_DIGIT];
+        assertEquals(-1, DtmfToneGenerator.indexOf('x'));
+        assertEquals(0, DtmfToneGenerator.render('x', buffer, 0));
+        assertEquals(0, DtmfToneGenerator.render('+', buffer, 0));
+        assertArrayEquals(new short[DtmfToneGenerator.SAMPLES_PER_DIGIT], buffer);
+        assertFalse(new DtmfToneGenerator().play('x'));
+    }
+}
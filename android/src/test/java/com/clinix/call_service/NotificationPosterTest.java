@@ -0,0 +1,119 @@
+package com.clinix.call_service;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.core.app.NotificationCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowNotificationManager;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationPosterTest {
+    private static final int ID = 1124;
+
+    private Context context;
+    private ShadowNotificationManager notifications;
+    private NotificationPoster poster;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        NotificationManager notificationManager = (NotificationManager)context.getSystemService(Context.NOTIFICATION_SERVICE);
+        notifications = shadowOf(notificationManager);
+        poster = new NotificationPoster(new Handler(Looper.getMainLooper()), notificationManager);
+    }
+
+    private Notification build(String title) {
+        return new NotificationCompat.Builder(context, "channel")
+                .setSmallIcon(android.R.drawable.ic_media_play)
+                .setContentTitle(title)
+                .build();
+    }
+
+    private String shownTitle(int id) {
+        return notifications.getNotification(id).extras.getCharSequence(Notification.EXTRA_TITLE).toString();
+    }
+
+    private static void idleFor(long ms) {
+        shadowOf(Looper.getMainLooper()).idleFor(ms, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void updateStormIsMergedAndFlushed() {
+        for (int i = 0; i < 50; i++) {
+            poster.post(ID, build("update " + i));
+        }
+        Map<String, Object> stats = poster.toMap();
+        assertEquals((long)NotificationPoster.DEFAULT_BURST, stats.get("posted"));
+        assertEquals(45L, stats.get("deferred"));
+        assertEquals(44L, stats.get("merged"));
+        assertEquals("update 4", shownTitle(ID));
+
+        idleFor(1000);
+        assertEquals("update 49", shownTitle(ID));
+        assertEquals(1L, poster.toMap().get("flushed"));
+        assertEquals(0, poster.toMap().get("pending"));
+    }
+
+    @Test
+    public void sustainedUpdatesStayUnderTheRateLimit() {
+        for (int i = 0; i < 200; i++) {
+            poster.post(ID, build("update " + i));
+            idleFor(10);
+        }
+        long posted = (Long)poster.toMap().get("posted");
+        assertTrue("posted " + posted, posted <= NotificationPoster.DEFAULT_BURST + 2 * NotificationPoster.DEFAULT_POSTS_PER_SECOND + 1);
+        idleFor(1000);
+        assertEquals("update 199", shownTitle(ID));
+    }
+
+    @Test
+    public void discardDropsDeferredPost() {
+        for (int i = 0; i < NotificationPoster.DEFAULT_BURST; i++) {
+            poster.post(ID, build("update " + i));
+        }
+        poster.post(ID, build("stale"));
+        poster.post(ID + 1, build("other"));
+        poster.discard(ID);
+        idleFor(1000);
+        assertEquals("update 4", shownTitle(ID));
+        assertEquals("other", shownTitle(ID + 1));
+    }
+
+    @Test
+    public void postedElsewhereSupersedesDeferredPost() {
+        for (int i = 0; i < NotificationPoster.DEFAULT_BURST; i++) {
+            poster.post(ID, build("update " + i));
+        }
+        poster.post(ID, build("stale"));
+        poster.onPostedElsewhere(ID);
+        idleFor(1000);
+        assertEquals("update 4", shownTitle(ID));
+        assertEquals(0, poster.toMap().get("pending"));
+    }
+
+    @Test
+    public void cancelRemovesShownAndDeferred() {
+        for (int i = 0; i < NotificationPoster.DEFAULT_BURST + 1; i++) {
+            poster.post(ID, build("update " + i));
+        }
+        poster.cancel(ID);
+        idleFor(1000);
+        assertEquals(0, notifications.size());
+    }
+}
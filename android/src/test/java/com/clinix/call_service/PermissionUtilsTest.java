@@ -0,0 +1,159 @@
+package com.clinix.call_service;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.Application;
+import android.app.Fragment;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class PermissionUtilsTest {
+    private static final String[] MICROPHONE = {Manifest.permission.RECORD_AUDIO};
+    private static final String[] CAMERA = {Manifest.permission.CAMERA};
+
+    private static class RecordingCallback implements PermissionUtils.Callback {
+        final List<int[]> results = new ArrayList<int[]>();
+
+        @Override
+        public void invoke(String[] permissions, int[] grantResults) {
+            results.add(grantResults);
+        }
+    }
+
+    private ActivityController<Activity> controller;
+    private Activity activity;
+    private long fragmentCommits;
+    private long mergedRequests;
+
+    @Before
+    public void setUp() {
+        Application application = RuntimeEnvironment.getApplication();
+        application.getApplicationInfo().targetSdkVersion = Build.VERSION_CODES.P;
+        PermissionUtils.invalidateGrantCache();
+        controller = Robolectric.buildActivity(Activity.class).setup();
+        activity = controller.get();
+        fragmentCommits = (Long)PermissionUtils.toMap().get("fragmentCommits");
+        mergedRequests = (Long)PermissionUtils.toMap().get("mergedRequests");
+    }
+
+    @After
+    public void tearDown() {
+        // Answers whatever is still in flight, so no request leaks into the next test.
+        if (!activity.isDestroyed()) {
+            activity.finish();
+            controller.pause().stop().destroy();
+        }
+        idle();
+    }
+
+    private static void idle() {
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private long commitsSinceSetUp() {
+        return (Long)PermissionUtils.toMap().get("fragmentCommits") - fragmentCommits;
+    }
+
+    private long mergesSinceSetUp() {
+        return (Long)PermissionUtils.toMap().get("mergedRequests") - mergedRequests;
+    }
+
+    private PermissionUtils.RequestPermissionsFragment currentFragment() {
+        for (Fragment fragment : activity.getFragmentManager().getFragments()) {
+            if (fragment instanceof PermissionUtils.RequestPermissionsFragment) {
+                return (PermissionUtils.RequestPermissionsFragment)fragment;
+            }
+        }
+        return null;
+    }
+
+    private void answer(String[] permissions, int... grantResults) {
+        PermissionUtils.RequestPermissionsFragment fragment = currentFragment();
+        assertNotNull(fragment);
+        fragment.onRequestPermissionsResult(fragment.getArguments().getInt("REQUEST_CODE"), permissions, grantResults);
+        idle();
+    }
+
+    @Test
+    public void grantedPermissionsNeedNoFragment() {
+        shadowOf(RuntimeEnvironment.getApplication()).grantPermissions(MICROPHONE);
+        RecordingCallback callback = new RecordingCallback();
+        PermissionUtils.requestPermissions(activity, MICROPHONE, callback);
+        idle();
+        assertEquals(1, callback.results.size());
+        assertEquals(PackageManager.PERMISSION_GRANTED, callback.results.get(0)[0]);
+        assertEquals(0, commitsSinceSetUp());
+    }
+
+    @Test
+    public void requestsWhileOneIsShowingShareTheDialog() {
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        RecordingCallback camera = new RecordingCallback();
+        PermissionUtils.requestPermissions(activity, MICROPHONE, first);
+        idle();
+        PermissionUtils.requestPermissions(activity, MICROPHONE, second);
+        PermissionUtils.requestPermissions(activity, CAMERA, camera);
+        idle();
+        assertEquals(1, commitsSinceSetUp());
+        assertEquals(2, mergesSinceSetUp());
+
+        shadowOf(RuntimeEnvironment.getApplication()).grantPermissions(MICROPHONE);
+        answer(MICROPHONE, PackageManager.PERMISSION_GRANTED);
+        assertEquals(1, first.results.size());
+        assertEquals(PackageManager.PERMISSION_GRANTED, first.results.get(0)[0]);
+        assertEquals(1, second.results.size());
+        assertEquals(PackageManager.PERMISSION_GRANTED, second.results.get(0)[0]);
+        // The camera request was held back and now gets its own dialog.
+        assertEquals(0, camera.results.size());
+        assertEquals(2, commitsSinceSetUp());
+
+        answer(CAMERA, PackageManager.PERMISSION_DENIED);
+        assertEquals(1, camera.results.size());
+        assertEquals(PackageManager.PERMISSION_DENIED, camera.results.get(0)[0]);
+    }
+
+    @Test
+    public void destroyingTheActivityAnswersEveryone() {
+        RecordingCallback microphone = new RecordingCallback();
+        RecordingCallback camera = new RecordingCallback();
+        PermissionUtils.requestPermissions(activity, MICROPHONE, microphone);
+        idle();
+        PermissionUtils.requestPermissions(activity, CAMERA, camera);
+        activity.finish();
+        controller.pause().stop().destroy();
+        idle();
+        assertEquals(1, microphone.results.size());
+        assertEquals(PackageManager.PERMISSION_DENIED, microphone.results.get(0)[0]);
+        assertEquals(1, camera.results.size());
+        assertEquals(PackageManager.PERMISSION_DENIED, camera.results.get(0)[0]);
+        assertEquals(1, commitsSinceSetUp());
+
+        // Nothing is stuck: the next request gets a dialog of its own.
+        controller = Robolectric.buildActivity(Activity.class).setup();
+        activity = controller.get();
+        RecordingCallback later = new RecordingCallback();
+        PermissionUtils.requestPermissions(activity, MICROPHONE, later);
+        idle();
+        assertEquals(2, commitsSinceSetUp());
+        assertNotNull(currentFragment());
+    }
+}
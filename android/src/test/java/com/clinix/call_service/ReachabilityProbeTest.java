@@ -0,0 +1,130 @@
+package com.clinix.call_service;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReachabilityProbeTest {
+    private static final int TIMEOUT_MS = 1000;
+    private static final long TTL_MS = 30000;
+    private static final long NEGATIVE_TTL_MS = 5000;
+
+    private static class RecordingCallback implements ReachabilityProbe.Callback {
+        final List<Boolean> reachable = new ArrayList<Boolean>();
+        final List<Boolean> cached = new ArrayList<Boolean>();
+
+        @Override
+        public void onResult(String target, boolean reachable, boolean cached) {
+            this.reachable.add(reachable);
+            this.cached.add(cached);
+        }
+    }
+
+    private ReachabilityProbe probe;
+    private ServerSocket server;
+
+    @Before
+    public void setUp() throws Exception {
+        probe = new ReachabilityProbe(new Handler(Looper.getMainLooper()), TIMEOUT_MS, TTL_MS, NEGATIVE_TTL_MS);
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        probe.shutdown();
+        server.close();
+    }
+
+    private String target(int port) {
+        return InetAddress.getLoopbackAddress().getHostAddress() + ":" + port;
+    }
+
+    /** Runs the main looper until the callback has {@code count} results. */
+    private static void await(RecordingCallback callback, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (callback.reachable.size() < count) {
+            if (System.currentTimeMillis() > deadline) fail("No result");
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void listeningPortIsReachableAndCached() throws Exception {
+        String target = target(server.getLocalPort());
+        RecordingCallback callback = new RecordingCallback();
+        probe.check(target, callback);
+        await(callback, 1);
+        assertTrue(callback.reachable.get(0));
+        assertFalse(callback.cached.get(0));
+
+        probe.check(target, callback);
+        await(callback, 2);
+        assertTrue(callback.reachable.get(1));
+        assertTrue(callback.cached.get(1));
+        assertEquals(1L, probe.toMap().get("probes"));
+        assertEquals(1L, probe.toMap().get("hits"));
+    }
+
+    @Test
+    public void closedPortIsUnreachableForShorterTime() throws Exception {
+        int port = server.getLocalPort();
+        server.close();
+        String target = target(port);
+        RecordingCallback callback = new RecordingCallback();
+        probe.check(target, callback);
+        await(callback, 1);
+        assertFalse(callback.reachable.get(0));
+
+        probe.check(target, callback);
+        await(callback, 2);
+        assertTrue(callback.cached.get(1));
+
+        shadowOf(Looper.getMainLooper()).idleFor(NEGATIVE_TTL_MS, TimeUnit.MILLISECONDS);
+        probe.check(target, callback);
+        await(callback, 3);
+        assertFalse(callback.cached.get(2));
+        assertEquals(2L, probe.toMap().get("probes"));
+    }
+
+    @Test
+    public void invalidateForcesNewProbe() throws Exception {
+        String target = target(server.getLocalPort());
+        RecordingCallback callback = new RecordingCallback();
+        probe.check(target, callback);
+        await(callback, 1);
+        probe.invalidate(target);
+        probe.check(target, callback);
+        await(callback, 2);
+        assertFalse(callback.cached.get(1));
+        assertEquals(2L, probe.toMap().get("probes"));
+    }
+
+    @Test
+    public void malformedTargetIsUnreachable() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        probe.check("no-port", callback);
+        probe.check("localhost:not-a-port", callback);
+        await(callback, 2);
+        assertFalse(callback.reachable.get(0));
+        assertFalse(callback.reachable.get(1));
+    }
+}
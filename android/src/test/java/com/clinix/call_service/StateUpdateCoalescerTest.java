@@ -0,0 +1,91 @@
+package com.clinix.call_service;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class StateUpdateCoalescerTest {
+    private static final long WINDOW_MS = 50;
+
+    private final List<CallProcessingState> applied = new ArrayList<CallProcessingState>();
+    private final List<Boolean> appliedPlaying = new ArrayList<Boolean>();
+    private StateUpdateCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        coalescer = new StateUpdateCoalescer(new Handler(Looper.getMainLooper()), new StateUpdateCoalescer.Sink() {
+            @Override
+            public void apply(CallProcessingState processingState, boolean playing, Integer errorCode, String errorMessage) {
+                applied.add(processingState);
+                appliedPlaying.add(playing);
+            }
+        }, WINDOW_MS);
+    }
+
+    @Test
+    public void burstIsMerged() {
+        coalescer.submit(CallProcessingState.loading, false, null, null);
+        coalescer.submit(CallProcessingState.buffering, false, null, null);
+        coalescer.submit(CallProcessingState.ready, false, null, null);
+        assertEquals(0, applied.size());
+        shadowOf(Looper.getMainLooper()).idleFor(WINDOW_MS, TimeUnit.MILLISECONDS);
+        assertEquals(1, applied.size());
+        assertEquals(CallProcessingState.ready, applied.get(0));
+        assertEquals(3, coalescer.getCounters().getSubmittedCount());
+        assertEquals(2, coalescer.getCounters().getMergedCount());
+        assertEquals(1, coalescer.getCounters().getAppliedCount());
+    }
+
+    @Test
+    public void playingChangeIsAppliedImmediately() {
+        coalescer.submit(CallProcessingState.loading, false, null, null);
+        coalescer.submit(CallProcessingState.ready, true, null, null);
+        assertEquals(1, applied.size());
+        assertEquals(CallProcessingState.ready, applied.get(0));
+        assertEquals(Boolean.TRUE, appliedPlaying.get(0));
+        // Nothing is left to apply when the window ends.
+        shadowOf(Looper.getMainLooper()).idleFor(WINDOW_MS, TimeUnit.MILLISECONDS);
+        assertEquals(1, applied.size());
+    }
+
+    @Test
+    public void idleAndCompletedAreAppliedImmediately() {
+        coalescer.submit(CallProcessingState.ready, true, null, null);
+        coalescer.submit(CallProcessingState.buffering, true, null, null);
+        assertEquals(1, applied.size());
+        coalescer.submit(CallProcessingState.completed, true, null, null);
+        assertEquals(2, applied.size());
+        assertEquals(CallProcessingState.completed, applied.get(1));
+        coalescer.submit(CallProcessingState.idle, true, null, null);
+        assertEquals(3, applied.size());
+        assertEquals(CallProcessingState.idle, applied.get(2));
+    }
+
+    @Test
+    public void cancelDropsPendingUpdate() {
+        coalescer.submit(CallProcessingState.loading, false, null, null);
+        coalescer.cancel();
+        shadowOf(Looper.getMainLooper()).idleFor(WINDOW_MS, TimeUnit.MILLISECONDS);
+        assertEquals(0, applied.size());
+    }
+
+    @Test
+    public void zeroWindowAppliesEveryUpdate() {
+        coalescer.setWindowMs(0);
+        coalescer.submit(CallProcessingState.loading, false, null, null);
+        coalescer.submit(CallProcessingState.buffering, false, null, null);
+        assertEquals(2, applied.size());
+    }
+}
@@ -0,0 +1,110 @@
+package com.clinix.call_service;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class WakeLockLeaseManagerTest {
+    private PowerManager.WakeLock wakeLock;
+    private WakeLockLeaseManager leases;
+
+    @Before
+    public void setUp() {
+        PowerManager powerManager = (PowerManager)RuntimeEnvironment.getApplication().getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WakeLockLeaseManagerTest.class.getName());
+        leases = new WakeLockLeaseManager(new Handler(Looper.getMainLooper()), wakeLock);
+    }
+
+    @After
+    public void tearDown() {
+        leases.releaseAll();
+    }
+
+    private static void idleFor(long ms) {
+        shadowOf(Looper.getMainLooper()).idleFor(ms, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void heldWhileReferenced() {
+        leases.acquire("a", 60000);
+        leases.acquire("a", 60000);
+        assertTrue(leases.isHeld());
+        assertTrue(wakeLock.isHeld());
+        leases.release("a");
+        assertTrue(wakeLock.isHeld());
+        leases.release("a");
+        assertFalse(leases.isHeld());
+        assertFalse(wakeLock.isHeld());
+        // Releasing an unknown call does nothing.
+        leases.release("a");
+        assertFalse(wakeLock.isHeld());
+    }
+
+    @Test
+    public void leaseExpiresWithoutRelease() {
+        leases.acquire("a", 1000);
+        idleFor(999);
+        assertTrue(wakeLock.isHeld());
+        idleFor(1);
+        assertFalse(leases.isHeld());
+        assertFalse(wakeLock.isHeld());
+        assertEquals(1L, leases.toMap().get("expired"));
+        assertEquals(1000, leases.getHeldMs("a"));
+    }
+
+    @Test
+    public void acquireExtendsLease() {
+        leases.acquire("a", 1000);
+        idleFor(500);
+        leases.acquire("a", 2000);
+        idleFor(1000);
+        assertTrue(wakeLock.isHeld());
+        idleFor(1000);
+        assertFalse(wakeLock.isHeld());
+    }
+
+    @Test
+    public void noLockOutlivesItsCall() {
+        leases.acquire("a", 60000);
+        leases.acquire("b", 60000);
+        leases.acquire("b", 60000);
+        leases.releaseAll("a");
+        assertTrue(wakeLock.isHeld());
+        leases.releaseAll("b");
+        assertFalse(wakeLock.isHeld());
+        assertEquals(0, leases.toMap().get("activeLeases"));
+    }
+
+    @Test
+    public void accountsHeldTimePerCall() {
+        leases.acquire("a", 60000);
+        idleFor(300);
+        leases.acquire("b", 60000);
+        idleFor(200);
+        assertEquals(500, leases.getHeldMs("a"));
+        assertEquals(200, leases.getHeldMs("b"));
+        leases.release("a");
+        idleFor(100);
+        assertEquals(500, leases.getHeldMs("a"));
+        assertEquals(300, leases.getHeldMs("b"));
+        leases.releaseAll();
+        assertEquals(600L, leases.toMap().get("totalHeldMs"));
+        assertEquals(0, leases.getHeldMs("unknown"));
+    }
+}